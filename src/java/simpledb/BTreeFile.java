@@ -25,6 +25,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -39,6 +40,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -79,13 +81,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(pageBuf, 0);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -99,12 +99,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = channel.read(pageBuf, pageOffset(id.pageNumber()));
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -128,17 +123,17 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * Returns the file offset of the page with the given number. Page 0 is
+	 * the root pointer page; the others follow it, one BufferPool page each.
+	 */
+	private long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -149,17 +144,22 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(page.getId().pageNumber()));
 		}
 	}
+
+	/**
+	 * Close the file channel. The BTreeFile can still be used; the channel is
+	 * reopened on demand.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -177,74 +177,109 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
+	 * Function which finds and locks the leaf page in the B+ tree corresponding to
+	 * the left-most page possibly containing the key field f. It locks the internal
 	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
 	 * leaf node with permission perm.
 	 * 
+	 * The locks on internal nodes are only held during the descent (lock coupling):
+	 * once the child of an internal node is locked, the lock on the node is released,
+	 * unless the transaction already held a lock on it before the descent. So readers
+	 * and inserters in different key ranges do not hold locks on the upper levels of 
+	 * the tree until they commit, and a page split only waits for descents that are
+	 * passing through its parent. The lock on the leaf is held until commit as usual.
+	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
+	 * If after is true, it finds the right-most page possibly containing a key less than
+	 * or equal to f instead, or the right-most leaf page if f is null -- used for the
+	 * descending iterator
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
+	 * @param after - whether to find the right-most rather than the left-most leaf page for f
+	 * @param latched - the parent of pid if it was locked only for this descent, in which case
+	 * its lock is released once pid is locked; otherwise null
 	 * @return the left-most leaf page possibly containing the key field f
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-			Field f) 
+			Field f, boolean after, PageId latched) 
 					throws DbException, TransactionAbortedException {
 		// some code goes here
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			PageId curLatch = descentLatch(tid, dirtypages, pid);
+			BTreeInternalPage curPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			releaseDescentLatch(tid, dirtypages, latched);  // 子节点已经加锁，可以放开父节点
+			latched = curLatch;
+
+			// 页内二分查找
+			pid = curPage.findChildId(f, after);
+			if (pid == null) {
+				throw new DbException("internal page " + curPage.getId() + " has no children");
+			}
+		}
+		if (pid.pgcateg() != BTreePageId.LEAF) {
+			throw new DbException("unexpected page category " + pid.pgcateg() + " during B+ tree descent");
+		}
+		BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		releaseDescentLatch(tid, dirtypages, latched);
+		return leaf;
+	}
 
-		try {
-			if (f == null) {
-				if (pid.pgcateg() == BTreePageId.LEAF) {
-					return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-				}
-				else if (pid.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage curPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-					BTreeInternalPageIterator itr = new BTreeInternalPageIterator(curPage);
-					// itr has at least one entry
-					BTreeEntry entry = itr.next();
-					return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-				}
+	// 下降时读到的page：事务之前没有锁住它时返回pid，表示锁住子节点之后就要释放它的锁
+	private PageId descentLatch(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid) {
+		if (dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid)) {
+			return null;
+		}
+		return pid;
+	}
 
-			} else {
-			    // we only need to consider these 2 kinds of pages
-				if (pid.pgcateg() == BTreePageId.LEAF) {
-					return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-				}
-				else if (pid.pgcateg() == BTreePageId.INTERNAL){
-					BTreeInternalPage curPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-					BTreeInternalPageIterator itr = new BTreeInternalPageIterator(curPage);
-					// itr has at least one entry
-					BTreeEntry entry = itr.next();
-					while (true){
-						if (entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)){
-							return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-						}
-						if (itr.hasNext()){
-							entry = itr.next();
-						}
-						else return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);;
-					}
-				}
-			}
+	// 释放下降时临时加的读锁；这次操作中被改成写锁的page不能释放
+	private void releaseDescentLatch(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId latched) {
+		if (latched != null && !dirtypages.containsKey(latched)) {
+			Database.getBufferPool().releasePage(tid, latched);
 		}
-		catch (DbException e){
-			throw e;
+	}
+
+	/**
+	 * Lock the root pointer page and find and lock the leaf page corresponding to
+	 * the left-most page possibly containing the key field f, coupling locks from the
+	 * root pointer down.
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field, boolean, PageId)
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @param after - whether to find the right-most leaf page possibly containing a key less
+	 * than or equal to f instead
+	 * @return the left-most leaf page possibly containing the key field f, or null if the tree
+	 * has no root page yet
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+			Field f, boolean after) 
+					throws DbException, TransactionAbortedException {
+		PageId latched = descentLatch(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
+		BTreePageId rootId;
+		try {
+			rootId = getRootPtrPage(tid, dirtypages).getRootId();
+		} catch (IOException e) {
+			throw new DbException("could not create the root of " + this.f + ": " + e.getMessage());
 		}
-		catch (TransactionAbortedException e){
-			throw e;
+		if (rootId == null) {
+			return null;
 		}
-        return null;
+		return findLeafPage(tid, dirtypages, rootId, perm, f, after, latched);
 	}
 	
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field, boolean, PageId)
 	 * 
 	 * @param tid - the transaction id
 	 * @param pid - the current page being searched
@@ -256,7 +291,39 @@ public class BTreeFile implements DbFile {
 	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
 			Field f) 
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f, false, null);
+	}
+
+	/**
+	 * Convenience method to find a leaf page from the root pointer page when there is
+	 * no dirtypages HashMap. Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
+	 * 
+	 * @param tid - the transaction id
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f, or null if the
+	 * tree has no root page yet
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
+			throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, false);
+	}
+
+	/**
+	 * Convenience method to find, from the root pointer page, the right-most leaf page
+	 * possibly containing a key less than or equal to f. Used by the descending iterator.
+	 * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
+	 * 
+	 * @param tid - the transaction id
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the right-most leaf page
+	 * @return the right-most leaf page possibly containing a key less than or equal to f,
+	 * or null if the tree has no root page yet
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid, Permissions perm, Field f)
+			throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, true);
 	}
 
 	/**
@@ -531,19 +598,18 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		// find and lock the left-most leaf page corresponding to the key field,
+		// coupling read locks from the root pointer page down
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField), false);
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+		if(leafPage == null) { // the root has just been created, so set the root pointer to point to it		
+			BTreePageId rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
 			rootPtr.setRootId(rootId);
+			leafPage = (BTreeLeafPage) getPage(tid, dirtypages, rootId, Permissions.READ_WRITE);
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// split the leaf page if there are no more slots available
 		if(leafPage.getNumEmptySlots() == 0) {
 			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
 		}
@@ -1088,13 +1154,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, pageOffset(1));
 			}
 		}
 
@@ -1150,11 +1213,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1185,10 +1245,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1297,6 +1354,44 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get an iterator, in ascending key order, over the tuples whose key lies between low
+	 * and high. The scan starts at the leaf page holding low and stops at the first key
+	 * past high, so it only reads the leaf pages the range covers. This method will acquire
+	 * a read lock on the affected pages of the file, and may block until the lock can be
+	 * acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param low - the lower bound of the range, or null if there is none
+	 * @param lowInclusive - whether a key equal to low is in the range
+	 * @param high - the upper bound of the range, or null if there is none
+	 * @param highInclusive - whether a key equal to high is in the range
+	 * @return an iterator for the tuples in the range
+	 */
+	public DbFileIterator rangeIterator(TransactionId tid, Field low, boolean lowInclusive,
+			Field high, boolean highInclusive) {
+		return new BTreeRangeIterator(this, tid, low, lowInclusive, high, highInclusive, false);
+	}
+
+	/**
+	 * Get an iterator, in descending key order, over the tuples whose key lies between low
+	 * and high. The scan starts at the leaf page holding high and follows the left sibling
+	 * pointers, stopping at the first key below low, so a query for the largest keys only
+	 * reads the right-most leaf pages. This method will acquire a read lock on the affected
+	 * pages of the file, and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param low - the lower bound of the range, or null if there is none
+	 * @param lowInclusive - whether a key equal to low is in the range
+	 * @param high - the upper bound of the range, or null if there is none
+	 * @param highInclusive - whether a key equal to high is in the range
+	 * @return an iterator for the tuples in the range, largest key first
+	 */
+	public DbFileIterator descendingIterator(TransactionId tid, Field low, boolean lowInclusive,
+			Field high, boolean highInclusive) {
+		return new BTreeRangeIterator(this, tid, low, lowInclusive, high, highInclusive, true);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1336,11 +1431,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+		it = curp == null ? null : curp.iterator();
 	}
 
 	/**
@@ -1421,17 +1513,15 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
 		}
-		it = curp.iterator();
+		// 在第一个leaf中直接定位到第一个可能满足条件的tuple
+		it = curp == null ? null : curp.iterator(ipred.getOp(), ipred.getField());
 	}
 
 	/**
@@ -1494,3 +1584,109 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		it = null;
 	}
 }
+
+/**
+ * Helper class that implements the DbFileIterator for a range of keys on a
+ * B+ Tree File, in ascending or descending key order
+ */
+class BTreeRangeIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	TransactionId tid;
+	BTreeFile f;
+	Field low, high;
+	Op lowOp, highOp;
+	boolean descending;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param low - the lower bound of the range, or null if there is none
+	 * @param lowInclusive - whether a key equal to low is in the range
+	 * @param high - the upper bound of the range, or null if there is none
+	 * @param highInclusive - whether a key equal to high is in the range
+	 * @param descending - whether to return the tuples largest key first
+	 */
+	public BTreeRangeIterator(BTreeFile f, TransactionId tid, Field low, boolean lowInclusive,
+			Field high, boolean highInclusive, boolean descending) {
+		this.f = f;
+		this.tid = tid;
+		this.low = low;
+		this.lowOp = lowInclusive ? Op.GREATER_THAN_OR_EQ : Op.GREATER_THAN;
+		this.high = high;
+		this.highOp = highInclusive ? Op.LESS_THAN_OR_EQ : Op.LESS_THAN;
+		this.descending = descending;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the leaf page holding the bound
+	 * the scan starts from, positioned at the first tuple in the range
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		if (descending) {
+			curp = f.findLastLeafPage(tid, Permissions.READ_ONLY, high);
+			if (curp != null) {
+				it = high == null ? curp.reverseIterator() : curp.reverseIterator(highOp, high);
+			}
+		}
+		else {
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, low);
+			if (curp != null) {
+				it = low == null ? curp.iterator() : curp.iterator(lowOp, low);
+			}
+		}
+	}
+
+	/**
+	 * Read the next tuple in the range, from the current page or from the next page in
+	 * scan order.
+	 * 
+	 * @return the next tuple in the range, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = t.getField(f.keyField());
+				// 扫描方向上的终点：越过它就结束
+				if (descending ? low != null && !key.compare(lowOp, low)
+						: high != null && !key.compare(highOp, high)) {
+					return null;
+				}
+				// 起点那一侧的重复key可能延续到相邻的page，需要跳过
+				if (descending ? high == null || key.compare(highOp, high)
+						: low == null || key.compare(lowOp, low)) {
+					return t;
+				}
+			}
+			BTreePageId nextp = descending ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+			if (nextp == null) {
+				return null;
+			}
+			curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+			it = descending ? curp.reverseIterator() : curp.iterator();
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the range
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+	}
+}
@@ -617,6 +617,58 @@ public class BTreeInternalPage extends BTreePage {
 		return new BTreeInternalPageReverseIterator(this);
 	}
 
+	/**
+	 * Find the child to descend into when looking for the left-most position of the
+	 * key f: the left child of the first entry whose key is greater than or equal to f,
+	 * or the right child of the last entry if every key is smaller. The entries are found
+	 * by binary search over the key slots; a probe that lands on an empty slot moves right
+	 * to the next used one, so the search takes O(log n) comparisons.
+	 * 
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page, or null if this page has no children
+	 */
+	public BTreePageId findChildId(Field f) {
+		return findChildId(f, false);
+	}
+
+	/**
+	 * Find the child to descend into when looking for the left-most position of the
+	 * key f, as {@link #findChildId(Field)} does, or, if after is true, for the position
+	 * just after the right-most occurrence of f: the left child of the first entry whose
+	 * key is greater than f, or the right child of the last entry if no key is.
+	 * 
+	 * @param f - the key to search for, or null for the left-most child (or, if after is
+	 * true, the right-most child)
+	 * @param after - whether to find the position after the keys equal to f
+	 * @return the id of the child page, or null if this page has no children
+	 */
+	public BTreePageId findChildId(Field f, boolean after) {
+		Op op = after ? Op.GREATER_THAN : Op.GREATER_THAN_OR_EQ;
+		// 不变式：lo之前的key都不满足key op f，hi及之后的都满足
+		int lo = 1, hi = f == null && !after ? 1 : numSlots;
+		while (f != null && lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int used = mid;
+			while (used < hi && !isSlotUsed(used)) {
+				used++;
+			}
+			if (used == hi) {
+				hi = mid;  // [mid, hi)中都是空slot
+			} else if (keys[used].compare(op, f)) {
+				hi = used;
+			} else {
+				lo = used + 1;
+			}
+		}
+		// hi之前最后一个使用的slot，它的child就是hi处entry的左child
+		for (int i = hi - 1; i >= 0; i--) {
+			if (isSlotUsed(i)) {
+				return new BTreePageId(pid.getTableId(), children[i], childCategory);
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith key out of this page
 	 * @param i - the index of the key
@@ -11,7 +11,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlottedPage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
@@ -323,16 +323,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int lessOrEqKey = previousUsedSlot(searchSlot(t.getField(keyField), Predicate.Op.GREATER_THAN));
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -441,6 +432,37 @@ public class BTreeLeafPage extends BTreePage {
 		return numSlots - getNumEmptySlots();
 	}
 
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public byte[] getSlotData(int slot) {
+		if (!isSlotUsed(slot))
+			return null;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				tuples[slot].getField(j).serialize(dos);
+			dos.flush();
+		} catch (IOException e) {
+			// 截断的槽数据会被写进日志，不能返回
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	public void setSlotData(int slot, byte[] data) {
+		if (data == null) {
+			tuples[slot] = null;
+			markSlotUsed(slot, false);
+			return;
+		}
+		// readNextTuple根据header判断槽是否在使用，所以先标记
+		markSlotUsed(slot, true);
+		tuples[slot] = readNextTuple(new DataInputStream(new ByteArrayInputStream(data)), slot);
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -491,6 +513,92 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * Return an iterator over the tuples on this page, in key order, positioned at the
+	 * first tuple whose key field may satisfy "key op f": for EQUALS and GREATER_THAN_OR_EQ
+	 * the first tuple with key >= f, and for GREATER_THAN the first tuple with key > f,
+	 * both found by binary search. For any other operator the iterator starts at the first
+	 * tuple. The caller still has to check the predicate, and to stop once it cannot hold.
+	 * 
+	 * @param op - the operator of the predicate
+	 * @param f - the field the key is compared to
+	 * @return an iterator over the tuples from the first that may satisfy the predicate
+	 */
+	public Iterator<Tuple> iterator(Predicate.Op op, Field f) {
+		switch (op) {
+		case EQUALS:
+		case GREATER_THAN_OR_EQ:
+			return new BTreeLeafPageIterator(this, searchSlot(f, Predicate.Op.GREATER_THAN_OR_EQ));
+		case GREATER_THAN:
+			return new BTreeLeafPageIterator(this, searchSlot(f, Predicate.Op.GREATER_THAN));
+		default:
+			return iterator();
+		}
+	}
+
+	/**
+	 * Return a reverse iterator over the tuples on this page, in descending key order,
+	 * positioned at the last tuple whose key field may satisfy "key op f": for EQUALS and
+	 * LESS_THAN_OR_EQ the last tuple with key <= f, and for LESS_THAN the last tuple with
+	 * key < f, both found by binary search. For any other operator the iterator starts at
+	 * the last tuple. The caller still has to check the predicate.
+	 * 
+	 * @param op - the operator of the predicate
+	 * @param f - the field the key is compared to
+	 * @return a reverse iterator over the tuples from the last that may satisfy the predicate
+	 */
+	public Iterator<Tuple> reverseIterator(Predicate.Op op, Field f) {
+		switch (op) {
+		case EQUALS:
+		case LESS_THAN_OR_EQ:
+			return new BTreeLeafPageReverseIterator(this, searchSlot(f, Predicate.Op.GREATER_THAN) - 1);
+		case LESS_THAN:
+			return new BTreeLeafPageReverseIterator(this, searchSlot(f, Predicate.Op.GREATER_THAN_OR_EQ) - 1);
+		default:
+			return reverseIterator();
+		}
+	}
+
+	/**
+	 * Binary search for the first used slot whose tuple has a key field satisfying
+	 * "key op f", where op is GREATER_THAN_OR_EQ or GREATER_THAN. Tuples are kept in
+	 * key order, but empty slots may lie between them; a probe that lands on an empty
+	 * slot moves right to the next used one, so the search takes O(log n) comparisons.
+	 * 
+	 * @return the slot, or getMaxTuples() if no tuple on this page satisfies the predicate
+	 */
+	int searchSlot(Field f, Predicate.Op op) {
+		// 不变式：lo之前的tuple都不满足，hi及之后的都满足
+		int lo = 0, hi = numSlots;
+		while (lo < hi) {
+			int mid = nextUsedSlot((lo + hi) >>> 1, hi);
+			if (mid == hi) {
+				hi = (lo + hi) >>> 1;  // [mid, hi)中都是空slot
+			} else if (tuples[mid].getField(keyField).compare(op, f)) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return nextUsedSlot(hi, numSlots);
+	}
+
+	// [from, to)中第一个使用的slot，没有则返回to
+	private int nextUsedSlot(int from, int to) {
+		while (from < to && !isSlotUsed(from)) {
+			from++;
+		}
+		return from;
+	}
+
+	// slot之前最后一个使用的slot，没有则返回-1
+	private int previousUsedSlot(int slot) {
+		do {
+			slot--;
+		} while (slot >= 0 && !isSlotUsed(slot));
+		return slot;
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -529,6 +637,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -578,6 +691,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
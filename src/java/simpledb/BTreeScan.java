@@ -4,9 +4,10 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate. It can also be reopened with a new predicate,
+ * as the inner side of an {@link IndexNestedLoopJoin}.
  */
-public class BTreeScan implements DbIterator {
+public class BTreeScan implements IndexDbIterator {
 
 	private static final long serialVersionUID = 1L;
 
@@ -15,6 +16,7 @@ public class BTreeScan implements DbIterator {
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
+	private int tableid;
 	private String tablename;
 	private String alias;
 
@@ -60,6 +62,21 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the id of the table this operator scans
+	 */
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	/**
+	 * @return the index predicate this operator scans for, or null if it
+	 *         returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -74,14 +91,10 @@ public class BTreeScan implements DbIterator {
 	 */
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
+		this.tableid = tableid;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
-			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
-		}
-		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
-		}
+		setIndexPredicate(ipred);
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
 		Type[] newTypes = new Type[myTd.numFields()];
@@ -99,6 +112,16 @@ public class BTreeScan implements DbIterator {
 		this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
 	}
 
+	private void setIndexPredicate(IndexPredicate ipred) {
+		this.ipred = ipred;
+		if(ipred == null) {
+			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		}
+		else {
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+		}
+	}
+
 	public void open() throws DbException, TransactionAbortedException {
 		if (isOpen)
 			throw new DbException("double open on one DbIterator.");
@@ -144,4 +167,27 @@ public class BTreeScan implements DbIterator {
 		close();
 		open();
 	}
+
+	/**
+	 * Open this scan for the tuples matching ipred, replacing the predicate
+	 * given to the constructor.
+	 */
+	public void open(IndexPredicate ipred) throws NoSuchElementException,
+	DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one DbIterator.");
+
+		setIndexPredicate(ipred);
+		open();
+	}
+
+	/**
+	 * Restart this scan for the tuples matching ipred, replacing the predicate
+	 * it was opened with.
+	 */
+	public void rewind(IndexPredicate ipred) throws DbException,
+	TransactionAbortedException {
+		close();
+		open(ipred);
+	}
 }
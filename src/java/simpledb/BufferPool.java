@@ -412,11 +412,23 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Vector;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -446,26 +458,104 @@ public class BufferPool {
 
     private final int numPages;
 
+    /**
+     * Number of latch stripes guarding page loads. Two threads missing on
+     * pages that hash to different stripes read from disk in parallel.
+     */
+    private static final int LATCH_STRIPES = 64;
+
+    /**
+     * A sequential scan over a table larger than this fraction of the pool
+     * reads through a {@link ScanRing} instead of the main replacement policy,
+     * unless the table fits in the frames that are still free.
+     */
+    public static final double SCAN_RING_THRESHOLD = 0.25;
+
+    /**
+     * Upper bound on the number of frames a scan ring may occupy.
+     */
+    public static final int SCAN_RING_PAGES = 16;
+
+    /**
+     * Number of background threads reading pages ahead of sequential scans.
+     */
+    private static final int IO_THREADS = 4;
+
+    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);  // 不阻止JVM退出
+        return t;
+    });
+
     private final ConcurrentHashMap<PageId, Node<Page>> lruCache;  // 防止锁的占用
 
-    private final Node<Page> head;
-    private final Node<Page> tail;  // lruCache的头和尾
+    private final Object[] frameLatches;  // 按PageId分段的latch，只在缺页时使用
+
+    private final ReplacementPolicy replacementPolicy;
+
+    private final Set<PageId> prefetching = ConcurrentHashMap.newKeySet();  // 正在后台预读的page，被丢弃时移除
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder diskReadNanos = new LongAdder();
 
     private final LockManager lockManager;
 
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedPages;  // 每个事务修改过的page，提交和回滚时只处理这些page
+
+    private volatile boolean steal = false;
+
+    private final Set<TransactionId> stolenFrom = ConcurrentHashMap.newKeySet();  // 有脏页被写回过磁盘的事务，回滚时要读日志
+
+    private volatile boolean force = true;  // 默认FORCE，原因见setForcePolicy
+
+    private final Set<PageId> unflushedCommits = ConcurrentHashMap.newKeySet();  // 已提交但还没写回磁盘的page
+
+    /**
+     * Most pages the background writer writes back in one pass.
+     */
+    public static final int WRITE_BEHIND_BATCH = 64;
+
+    /**
+     * Most adjacent pages of a HeapFile the background writer writes back
+     * with a single write.
+     */
+    public static final int WRITE_BEHIND_RUN = 16;
+
+    private final Object writerSignal = new Object();  // 后台写线程在上面等待，淘汰时缺少干净页会唤醒它
+    private Thread backgroundWriter;  // 由writerSignal保护
+
+    private final LongAdder writeBehindPages = new LongAdder();
+    private final LongAdder writeBehindWrites = new LongAdder();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.LRU.create(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given replacement policy.
+     *
+     * @param numPages          maximum number of pages in this buffer pool.
+     * @param replacementPolicy decides which page to evict; must be fresh
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
         // some code goes here
         this.numPages = numPages;
         this.lruCache = new ConcurrentHashMap<>();
-        this.head = new Node<>();
-        this.tail = new Node<>();
-        this.head.setNext(this.tail);
-        this.tail.setPrev(this.head);
+        this.frameLatches = new Object[LATCH_STRIPES];
+        for (int i = 0; i < LATCH_STRIPES; i++) {
+            this.frameLatches[i] = new Object();
+        }
+        this.replacementPolicy = replacementPolicy;
+        this.dirtiedPages = new ConcurrentHashMap<>();
 
         this.lockManager = new LockManager();
     }
@@ -496,125 +586,301 @@ public class BufferPool {
         }
     }
 
+    /**
+     * The set of locks granted on one page together with the requests
+     * waiting for it. Waiters park on the queue's monitor and are woken only
+     * when something changes on this page.
+     */
+    static class LockQueue {
+        private final Map<TransactionId, Lock> holders = new HashMap<>();
+        private final LinkedList<Lock> waiters = new LinkedList<>();
+        private boolean retired = false;  // 已经从lockMap中移除，不能再使用
+
+        Lock holderOf(TransactionId tid) {
+            return this.holders.get(tid);
+        }
+
+        // 请求是否和其他事务持有的锁相容
+        boolean compatible(Lock request) {
+            for (Lock lock : this.holders.values()) {
+                if (lock.getTid().equals(request.getTid())) {
+                    continue;
+                }
+                if (request.getPermission().equals(Permissions.READ_WRITE)
+                        || lock.getPermission().equals(Permissions.READ_WRITE)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return this.holders.isEmpty() && this.waiters.isEmpty();
+        }
+
+        // request在等待的事务：与它冲突的持有者，以及排在它前面的请求（FIFO）
+        Set<TransactionId> blockersOf(Lock request) {
+            Set<TransactionId> blockers = new HashSet<>();
+            for (Lock lock : this.holders.values()) {
+                if (!lock.getTid().equals(request.getTid())
+                        && (request.getPermission().equals(Permissions.READ_WRITE)
+                        || lock.getPermission().equals(Permissions.READ_WRITE))) {
+                    blockers.add(lock.getTid());
+                }
+            }
+            for (Lock waiter : this.waiters) {
+                if (waiter == request) {
+                    break;
+                }
+                if (!waiter.getTid().equals(request.getTid())) {
+                    blockers.add(waiter.getTid());
+                }
+            }
+            return blockers;
+        }
+    }
+
     public static class LockManager {
-        private final ConcurrentHashMap<PageId, Vector<Lock>> lockMap;
+        /**
+         * How long a request may wait before the transaction is presumed
+         * deadlocked. Cycles among lock requests are found by the waits-for
+         * graph long before this; the timeout only catches waits the graph
+         * cannot see. A random jitter of the same size is added so that
+         * transactions stuck together do not all give up at once.
+         */
+        private static final long LOCK_WAIT_MILLIS = 1000;
+
+        private final ConcurrentHashMap<PageId, LockQueue> lockMap;
+
+        private final ConcurrentHashMap<TransactionId, Set<PageId>> tidToPages;  // 每个事务持有锁的page，释放时不用扫描lockMap
+
+        private final WaitsForGraph waitsFor;
+
+        private final Random random = new Random();
 
         public LockManager() {
             lockMap = new ConcurrentHashMap<>();
+            tidToPages = new ConcurrentHashMap<>();
+            waitsFor = new WaitsForGraph(this::lockCount);
         }
 
-        // 删除一个lock，如果对应的Vector为空，则删除这个entry
-        public synchronized void removeLock(TransactionId tid, PageId pageId) {
-            Vector<Lock> curLockVector = this.lockMap.get(pageId);
-            int index = 0;
-            boolean found = false;
-            for (int i = 0; i < curLockVector.size(); i++) {
-                if (curLockVector.get(i).getTid().equals(tid)) {
-                    found = true;
-                    index = i;
-                    break;
-                }
+        public WaitsForGraph getWaitsForGraph() {
+            return waitsFor;
+        }
+
+        // tid持有锁的page
+        public Set<PageId> pagesLockedBy(TransactionId tid) {
+            Set<PageId> pages = this.tidToPages.get(tid);
+            return pages == null ? Collections.<PageId>emptySet() : pages;
+        }
+
+        public int lockCount(TransactionId tid) {
+            Set<PageId> pages = this.tidToPages.get(tid);
+            return pages == null ? 0 : pages.size();
+        }
+
+        // 调用者需持有queue的monitor
+        private void retireIfEmpty(PageId pageId, LockQueue queue) {
+            if (queue.isEmpty()) {
+                queue.retired = true;
+                this.lockMap.remove(pageId, queue);
             }
-            if (found) {
-                curLockVector.remove(index);
-                if (curLockVector.size() == 0) {
-                    this.lockMap.remove(pageId);
-                }
+        }
+
+        // 调用者需持有queue的monitor
+        private void release(PageId pageId, LockQueue queue, TransactionId tid) {
+            if (queue.holders.remove(tid) != null) {
+                queue.notifyAll();
+            }
+            retireIfEmpty(pageId, queue);
+        }
+
+        // 删除一个lock，如果对应的队列为空，则删除这个entry
+        public void removeLock(TransactionId tid, PageId pageId) {
+            LockQueue queue = this.lockMap.get(pageId);
+            if (queue == null) {
+                return;
+            }
+            synchronized (queue) {
+                release(pageId, queue, tid);
+            }
+            Set<PageId> pages = this.tidToPages.get(tid);
+            if (pages != null) {
+                pages.remove(pageId);
             }
         }
 
         // 删除与一个事务相关的所有lock
-        public synchronized void removeTidLocks(TransactionId tid) {
-            for (Map.Entry<PageId, Vector<Lock>> entry : this.lockMap.entrySet()) {
-                Vector<Lock> lockList = entry.getValue();
-                for (int i = 0; i < lockList.size(); i++) {
-                    if (lockList.get(i).getTid().equals(tid)) {
-                        lockList.remove(lockList.get(i));
+        public void removeTidLocks(TransactionId tid) {
+            Set<PageId> pages = this.tidToPages.remove(tid);
+            if (pages != null) {
+                for (PageId pageId : pages) {
+                    LockQueue queue = this.lockMap.get(pageId);
+                    if (queue == null) {
+                        continue;
+                    }
+                    synchronized (queue) {
+                        release(pageId, queue, tid);
                     }
-                }
-                if (lockList.size() == 0) {
-                    this.lockMap.remove(entry.getKey());
                 }
             }
+            this.waitsFor.transactionComplete(tid);
         }
 
-        // 加锁
-        public synchronized boolean setLock(PageId pageId, TransactionId tid, Permissions type) {
-            Vector<Lock> curLockVector = this.lockMap.get(pageId);
-            if (curLockVector == null) {  // 如果这个page没有上锁
-                curLockVector = new Vector<>();
-                curLockVector.add(new Lock(tid, type));
-                this.lockMap.put(pageId, curLockVector);
-                return true;
-            } else {
-                if (type.equals(Permissions.READ_WRITE)) {
-                    // 申请独占锁
-                    if (curLockVector.size() == 1) {
-                        if (curLockVector.get(0).getTid().equals(tid)) {
-                            // 只有一个锁并且锁的事务id一致，看是否升级锁
-                            if (curLockVector.get(0).getPermission().equals(Permissions.READ_ONLY)) {
-                                curLockVector.get(0).setPermission(type);
-                                this.lockMap.put(pageId, curLockVector);
-                            }
-                            return true;
-                        } else { // 当前页面已经被其他事务共享，暂时不能独占
-                            return false;
+        /**
+         * Acquire a lock on pageId, parking the calling thread until the lock
+         * is granted. Requests on a page are granted in FIFO order, except
+         * that a shared-to-exclusive upgrade is queued ahead of new requests.
+         *
+         * @throws TransactionAbortedException if the transaction was chosen
+         *         as the victim of a deadlock, or waited so long that it is
+         *         presumed deadlocked
+         */
+        public void acquireLock(PageId pageId, TransactionId tid, Permissions type)
+                throws TransactionAbortedException {
+            Lock request = new Lock(tid, type);
+            LockQueue queue;
+            while (true) {
+                queue = this.lockMap.computeIfAbsent(pageId, k -> new LockQueue());
+                synchronized (queue) {
+                    if (queue.retired) {
+                        continue;  // 拿到的队列已经被回收，重新取
+                    }
+                    Lock held = queue.holderOf(tid);
+                    if (held != null && (held.getPermission().equals(Permissions.READ_WRITE)
+                            || type.equals(Permissions.READ_ONLY))) {
+                        return;  // 已经持有足够强的锁
+                    }
+                    if (this.waitsFor.isVictim(tid)) {
+                        throw new TransactionAbortedException();
+                    }
+                    if (queue.waiters.isEmpty() && queue.compatible(request)) {
+                        grant(pageId, queue, held, request);
+                        return;
+                    }
+                    if (held != null) {
+                        // 升级请求排在所有普通请求之前
+                        int pos = 0;
+                        while (pos < queue.waiters.size() && queue.holderOf(queue.waiters.get(pos).getTid()) != null) {
+                            pos++;
                         }
-                    } else { // 当前页面的锁有多个
-                        return false;
+                        queue.waiters.add(pos, request);
+                    } else {
+                        queue.waiters.addLast(request);
                     }
-                } else {
-                    // 申请共享锁
-                    for (Lock curLock : curLockVector) {
-                        if (curLock.getPermission().equals(Permissions.READ_WRITE)) { // 如果这个锁是独占锁，此时只能有一个锁
-                            return curLock.getTid().equals(tid) && curLockVector.size() == 1;
+                    break;
+                }
+            }
+
+            boolean granted = false;
+            long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS
+                    + this.random.nextInt((int) LOCK_WAIT_MILLIS);
+            try {
+                while (true) {
+                    synchronized (queue) {
+                        if (queue.waiters.getFirst() == request && queue.compatible(request)) {
+                            queue.waiters.removeFirst();
+                            grant(pageId, queue, queue.holderOf(tid), request);
+                            granted = true;
+                            return;
+                        }
+                        if (this.waitsFor.isVictim(tid)) {
+                            throw new TransactionAbortedException();
+                        }
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            this.waitsFor.recordTimeout();
+                            throw new TransactionAbortedException();
                         }
-                        if (curLock.getTid().equals(tid)) {
-                            return true;
+                        // 等待的对象没有变化时才挂起，否则先去检测死锁
+                        if (!this.waitsFor.setBlockers(request, tid, queue, queue.blockersOf(request))) {
+                            queue.wait(remaining);
+                            continue;
                         }
                     }
-                    curLockVector.add(new Lock(tid, type));
-                    this.lockMap.put(pageId, curLockVector);
-                    return true;
+                    // 不持有任何队列的monitor时检测死锁，避免和唤醒victim的线程互相等待
+                    for (Object victimQueue : this.waitsFor.findVictim(tid)) {
+                        synchronized (victimQueue) {
+                            victimQueue.notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new TransactionAbortedException();
+            } finally {
+                this.waitsFor.removeWaiter(request);
+                // 放弃等待时（检测到死锁、超时或线程被终止）要把自己从队列中移除，并唤醒后面的请求
+                synchronized (queue) {
+                    if (!granted) {
+                        queue.waiters.remove(request);
+                        retireIfEmpty(pageId, queue);
+                    }
+                    queue.notifyAll();
                 }
             }
         }
 
-        // 查看一个tid是否对pid加了lock
-        public synchronized boolean holdLock(PageId pid, TransactionId tid) {
-            Vector<Lock> curLockVector = this.lockMap.get(pid);
-            for (Lock curLock : curLockVector) {
-                if (curLock.getTid().equals(tid)) {
-                    return true;
+        // 调用者需持有queue的monitor
+        private void grant(PageId pageId, LockQueue queue, Lock held, Lock request) {
+            if (held != null) {
+                held.setPermission(request.getPermission());
+            } else {
+                queue.holders.put(request.getTid(), request);
+                this.tidToPages.computeIfAbsent(request.getTid(), k -> ConcurrentHashMap.newKeySet()).add(pageId);
+            }
+        }
+
+        /**
+         * Acquire a lock on pageId only if it can be granted at once.
+         *
+         * @return true if the lock was granted, false if another
+         *         transaction holds or is waiting for a conflicting lock
+         */
+        public boolean tryAcquireLock(PageId pageId, TransactionId tid, Permissions type) {
+            Lock request = new Lock(tid, type);
+            while (true) {
+                LockQueue queue = this.lockMap.computeIfAbsent(pageId, k -> new LockQueue());
+                synchronized (queue) {
+                    if (queue.retired) {
+                        continue;
+                    }
+                    Lock held = queue.holderOf(tid);
+                    if (held != null && (held.getPermission().equals(Permissions.READ_WRITE)
+                            || type.equals(Permissions.READ_ONLY))) {
+                        return true;
+                    }
+                    if (queue.waiters.isEmpty() && queue.compatible(request)) {
+                        grant(pageId, queue, held, request);
+                        return true;
+                    }
+                    retireIfEmpty(pageId, queue);
+                    return false;
                 }
             }
-            return false;
+        }
+
+        // 查看一个tid是否对pid加了lock
+        public boolean holdLock(PageId pid, TransactionId tid) {
+            LockQueue queue = this.lockMap.get(pid);
+            if (queue == null) {
+                return false;
+            }
+            synchronized (queue) {
+                return queue.holderOf(tid) != null;
+            }
         }
 
     }
 
+    /**
+     * A frame of the buffer pool. The replacement policy keeps its own
+     * history per PageId, so a frame only holds the current page object.
+     */
     public class Node<T> {
-        private T data;
-        private Node<T> next;
-        private Node<T> prev;
-
-        public Node() {
-            this.next = null;
-            this.prev = null;
-        }
+        private volatile T data;
 
         public Node(T dataVal) {
             this.data = dataVal;
-            this.next = null;
-            this.prev = null;
-        }
-
-        public void setNext(Node<T> next) {
-            this.next = next;
-        }
-
-        public void setPrev(Node<T> prev) {
-            this.prev = prev;
         }
 
         public void setData(T data) {
@@ -624,34 +890,142 @@ public class BufferPool {
         public T getData() {
             return data;
         }
+    }
 
-        public Node<T> getNext() {
-            return next;
+    /**
+     * A small set of frames private to one large sequential scan. Pages the
+     * scan reads from disk are installed in the pool as usual, but once the
+     * ring is full the oldest of them is dropped to make room for the next
+     * one, so the scan recycles its own frames instead of pushing the rest
+     * of the pool out. Pages the scan finds already cached are used in place
+     * and are not promoted.
+     */
+    public static class ScanRing {
+        private final int size;
+        private final ArrayDeque<PageId> pages;  // 由BufferPool的monitor保护
+
+        ScanRing(int size) {
+            this.size = size;
+            this.pages = new ArrayDeque<>(size);
         }
 
-        public Node<T> getPrev() {
-            return prev;
+        public int size() {
+            return size;
         }
     }
 
-    public void put(Node<Page> curNode) {
-        // 向链表中添加
-        curNode.setNext(this.head.getNext());
-        curNode.setPrev(this.head);  // fix bug in lab3 exercise2
-        this.head.getNext().setPrev(curNode);  // 不能忽略这一步
-        this.head.setNext(curNode);
+    /**
+     * Choose the read strategy for a sequential scan of a table. A table
+     * that fits in the free frames is read through the pool, since caching
+     * it evicts nothing.
+     *
+     * @param tablePages the number of pages the scan will read
+     * @return a ring to pass to {@link #getPage(TransactionId, PageId, Permissions, ScanRing)},
+     *         or null if the table is small enough to read through the pool
+     */
+    public ScanRing newScanRing(int tablePages) {
+        if (tablePages <= this.numPages * SCAN_RING_THRESHOLD
+                || tablePages <= this.numPages - this.lruCache.size()) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, Math.min(SCAN_RING_PAGES, this.numPages / 4)));
     }
 
-    public void remove(Node<Page> curNode) {
-        // 从链表中删除
-        Node<Page> prevNode = curNode.getPrev();
-        Node<Page> nextNode = curNode.getNext();
-        prevNode.setNext(nextNode);
-        nextNode.setPrev(prevNode);
+    private Object latchFor(PageId pid) {
+        return this.frameLatches[(pid.hashCode() & 0x7fffffff) % LATCH_STRIPES];
     }
 
-    public Node<Page> getTail() {
-        return this.tail.getPrev();
+    // 从磁盘读出page，并统计读取耗时
+    private Page readFromDisk(DbFile file, PageId pid) {
+        long start = System.nanoTime();
+        Page page = file.readPage(pid);
+        this.diskReadNanos.add(System.nanoTime() - start);
+        this.diskReads.increment();
+        return page;
+    }
+
+    /**
+     * Install a freshly read page, evicting a page first if the pool is full.
+     * Capacity is checked under the pool monitor, but the disk read that
+     * produced the page happens outside of it.
+     */
+    private synchronized void installPage(PageId pid, Node<Page> node) throws DbException {
+        while (this.lruCache.size() >= this.numPages) {
+            evictPage();
+        }
+        this.lruCache.put(pid, node);
+        this.replacementPolicy.pageAdded(pid);
+    }
+
+    /**
+     * Install a page read through a scan ring. When the ring is full its
+     * oldest page is discarded first, unless it has been dirtied since.
+     */
+    private synchronized void installRingPage(PageId pid, Node<Page> node, ScanRing ring)
+            throws DbException {
+        trimRing(ring);
+        installPage(pid, node);
+        ring.pages.addLast(pid);
+    }
+
+    private synchronized void trimRing(ScanRing ring) {
+        if (ring.pages.size() >= ring.size) {
+            PageId oldest = ring.pages.pollFirst();
+            Node<Page> oldNode = this.lruCache.get(oldest);
+            if (oldNode != null && oldNode.getData().isDirty() == null
+                    && !this.unflushedCommits.contains(oldest)) {
+                discardPage(oldest);
+            }
+        }
+    }
+
+    /**
+     * Install a page read ahead of a scan. The read ran without a page lock,
+     * so the image is only installed if no version of the page was cached
+     * or discarded while it was being read: a writer may have put its
+     * modified page back in the meantime. Room is only made by discarding a
+     * clean page; a read-ahead never writes a page back.
+     *
+     * @return true if the page was installed
+     */
+    private synchronized boolean installPrefetchedPage(PageId pid, Node<Page> node, ScanRing ring) {
+        if (!this.prefetching.remove(pid) || this.lruCache.containsKey(pid)) {
+            return false;
+        }
+        if (ring != null) {
+            trimRing(ring);
+        }
+        while (this.lruCache.size() >= this.numPages) {
+            PageId victim = chooseCleanVictim();
+            if (victim == null) {
+                return false;
+            }
+            discardPage(victim);
+        }
+        // cachePage不经过pool的monitor，用putIfAbsent保证不覆盖它放入的版本
+        if (this.lruCache.putIfAbsent(pid, node) != null) {
+            return false;
+        }
+        this.replacementPolicy.pageAdded(pid);
+        if (ring != null) {
+            ring.pages.addLast(pid);
+        }
+        return true;
+    }
+
+    /**
+     * Put a page modified by insertTuple/deleteTuple back into the pool so
+     * later requests see the new version.
+     */
+    private void cachePage(Page page) {
+        Node<Page> node = this.lruCache.putIfAbsent(page.getId(), new Node<>(page));
+        if (node != null) {
+            node.setData(page);
+            this.replacementPolicy.pageAccessed(page.getId());
+        } else {
+            // BTree的测试中，page可能会分裂，新分裂出来的page可能不在cache中
+            this.replacementPolicy.pageAdded(page.getId());
+        }
     }
 
     public static int getPageSize() {
@@ -683,36 +1057,104 @@ public class BufferPool {
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        boolean hasLock = false;
-        long startTime = System.currentTimeMillis();
-        long timeout = 100;
-        while (!hasLock) {
-            if (System.currentTimeMillis() - startTime > timeout) {
-                throw new TransactionAbortedException();
+        this.lockManager.acquireLock(pid, tid, perm);  // 拿不到锁时挂起，直到被唤醒或超时
+
+        Node<Page> curNode = this.lruCache.get(pid);
+        if (curNode != null) {
+            this.hits.increment();
+            this.replacementPolicy.pageAccessed(pid);
+            return curNode.getData();
+        }
+        // 缺页时只锁住pid所在的分段，避免同一个page被重复读入
+        synchronized (latchFor(pid)) {
+            curNode = this.lruCache.get(pid);
+            if (curNode == null) {
+                this.misses.increment();
+                // 从磁盘读出page（page有自己的table id，而table和dbfile一一对应，dbfile是与磁盘交互的接口）
+                Page page = readFromDisk(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+                curNode = new Node<>(page);
+                installPage(pid, curNode);
+            } else {
+                this.hits.increment();
+                this.replacementPolicy.pageAccessed(pid);
             }
-            hasLock = this.lockManager.setLock(pid, tid, perm);
         }
+        return curNode.getData();
+    }
+
+    /**
+     * Retrieve a page for a sequential scan. Behaves like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that a page
+     * read from disk occupies a frame of the given ring, and a cached page is
+     * returned without being promoted by the replacement policy.
+     *
+     * @param ring the scan's ring, or null to read through the pool as usual
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
+        if (ring == null) {
+            return getPage(tid, pid, perm);
+        }
+        this.lockManager.acquireLock(pid, tid, perm);
 
         Node<Page> curNode = this.lruCache.get(pid);
         if (curNode == null) {
-            if (this.lruCache.size() == this.numPages) {
-                evictPage();
-            }
-            curNode = new Node<>(Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
-            this.put(curNode);
-            this.lruCache.put(pid, curNode);
-            // 从磁盘读出page（page有自己的table id，而table和dbfile一一对应，dbfile是与磁盘交互的接口）
-            // 将载入buffer pool的page给到curPage
-        } else {
-            this.remove(curNode);
-            this.put(curNode);
+            synchronized (latchFor(pid)) {
+                curNode = this.lruCache.get(pid);
+                if (curNode == null) {
+                    this.misses.increment();
+                    Page page = readFromDisk(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+                    curNode = new Node<>(page);
+                    installRingPage(pid, curNode, ring);
+                    return curNode.getData();
+                }
+            }
         }
+        this.hits.increment();
         return curNode.getData();
     }
 
+    /**
+     * Read a page into the pool in the background, ahead of a sequential
+     * scan that is expected to request it soon. No lock is taken: the page
+     * is only cached, and the scan locks it when it calls getPage. A page
+     * that is already cached, that is cached or discarded while it is being
+     * read, or that could only be installed by evicting a dirty page, is
+     * skipped.
+     *
+     * @param ring the scan's ring, or null to install the page in the pool
+     * @return the pending read, which the scan should cancel if it gets to
+     *         the page first; null if the page is already cached
+     */
+    public Future<?> prefetchPage(PageId pid, ScanRing ring) {
+        if (this.lruCache.containsKey(pid)) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        return ioExecutor.submit(() -> {
+            // 和缺页一样在分段latch内读盘，保证同一个page不会被读入两次
+            synchronized (latchFor(pid)) {
+                if (this.lruCache.containsKey(pid)) {
+                    return;
+                }
+                this.prefetching.add(pid);
+                try {
+                    Node<Page> node = new Node<>(readFromDisk(file, pid));
+                    if (installPrefetchedPage(pid, node, ring)) {
+                        this.prefetches.increment();
+                    }
+                } catch (RuntimeException e) {
+                    // 预读只是优化，失败时由getPage正常读取
+                } finally {
+                    this.prefetching.remove(pid);
+                }
+            }
+        });
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -739,6 +1181,112 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * @return the number of getPage calls served from the pool
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the number of pages read into the pool by prefetchPage
+     */
+    public long getPrefetchCount() {
+        return this.prefetches.sum();
+    }
+
+    /**
+     * @return the average time taken to read a page from disk, in
+     *         nanoseconds, or 0 if no page has been read yet
+     */
+    public double getAverageReadNanos() {
+        long reads = this.diskReads.sum();
+        return reads == 0 ? 0 : (double) this.diskReadNanos.sum() / reads;
+    }
+
+    /**
+     * Choose whether dirty pages may be evicted (STEAL) or not (NO STEAL,
+     * the default). Under STEAL, when every page in the pool is dirty the
+     * replacement policy's victim is written back to disk, after its UPDATE
+     * record has been forced to the log, instead of failing with "all pages
+     * are dirty". If the transaction that dirtied it later aborts, the
+     * change is undone from the log by {@link LogFile#rollback}.
+     */
+    public void setStealPolicy(boolean steal) {
+        this.steal = steal;
+    }
+
+    /**
+     * @return true if dirty pages may be evicted
+     */
+    public boolean isStealPolicy() {
+        return this.steal;
+    }
+
+    /**
+     * Choose whether commit writes a transaction's dirty pages to disk
+     * (FORCE, the default) or only to the log (NO FORCE). Under NO FORCE,
+     * commit appends an UPDATE record per dirty page without forcing it;
+     * the COMMIT record's force, shared with concurrent committers by
+     * {@link LogFile#awaitDurable}, makes them durable. The pages stay in
+     * the pool and are written back when they are evicted or at the next
+     * checkpoint, so committed data that has not been written back is only
+     * on disk in the log.
+     * <p>
+     * FORCE stays the default even though {@link LogFile#recover} redoes
+     * committed changes: NO FORCE is only safe where the log is replayed
+     * after the pool is lost. {@link Database#resetBufferPool} drops the
+     * pool without recovery, and the transaction tests read the heap files
+     * after it expecting every committed change to be there. Callers that
+     * recover after a crash, such as the recovery tests, opt in here.
+     */
+    public void setForcePolicy(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * @return true if commit writes dirty pages to disk
+     */
+    public boolean isForcePolicy() {
+        return this.force;
+    }
+
+    /**
+     * @return the number of pages holding committed changes that have not
+     *         yet been written to disk
+     */
+    public int getUnflushedPageCount() {
+        return this.unflushedCommits.size();
+    }
+
+    /**
+     * Choose how the transaction aborted to break a deadlock is picked.
+     */
+    public void setDeadlockVictimPolicy(WaitsForGraph.VictimPolicy policy) {
+        this.lockManager.getWaitsForGraph().setVictimPolicy(policy);
+    }
+
+    /**
+     * @return the number of deadlock cycles found by the waits-for graph
+     */
+    public long getDeadlocksDetected() {
+        return this.lockManager.getWaitsForGraph().getDeadlocksDetected();
+    }
+
+    /**
+     * @return the number of lock requests aborted because their wait timed out
+     */
+    public long getLockTimeouts() {
+        return this.lockManager.getWaitsForGraph().getLockTimeouts();
+    }
+
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
@@ -751,9 +1299,16 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * If an abort cannot undo the transaction's pages that were written back
+     * early, its uncommitted changes are still on disk. The transaction then
+     * keeps its locks and stays marked as stolen from, so the abort can be
+     * retried, and recovery treats it as a loser if the database stops
+     * first.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws RuntimeException if the abort could not undo written-back pages
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
@@ -764,23 +1319,40 @@ public class BufferPool {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            this.stolenFrom.remove(tid);
         } else {
+            if (this.stolenFrom.contains(tid)) {
+                // 被写回磁盘的修改要根据日志中的before image撤销
+                try {
+                    Database.getLogFile().rollback(tid);
+                } catch (IOException e) {
+                    // 撤销失败，磁盘上还有未提交的修改：不能释放锁
+                    throw new RuntimeException("could not undo the written-back pages of transaction "
+                            + tid.getId(), e);
+                }
+                this.stolenFrom.remove(tid);
+            }
             this.restorePages(tid);
         }
+        this.dirtiedPages.remove(tid);
         lockManager.removeTidLocks(tid);
     }
 
     // 将脏页修改回磁盘的内容
     public synchronized void restorePages(TransactionId tid) {
-        for (Node<Page> node : this.lruCache.values()) {
-            if (tid.equals(node.getData().isDirty())) {  // 不能写反，可能isDirty()返回null
-                Page originPage = Database.getCatalog().getDatabaseFile(
-                        node.getData().getId().getTableId()).readPage(node.getData().getId()
-                );  // 此时originPage的dirty标志为False
-                this.remove(node);
+        for (PageId pid : pagesDirtiedBy(tid)) {
+            Node<Page> node = this.lruCache.get(pid);
+            if (node != null && tid.equals(node.getData().isDirty())) {  // 不能写反，可能isDirty()返回null
+                Page originPage;
+                if (this.unflushedCommits.contains(pid)) {
+                    originPage = node.getData().getBeforeImage();  // 磁盘上不是最后提交的版本
+                    originPage.setLsn(node.getData().getLsn());  // 保守地沿用，写回前日志至少要落盘到这里
+                } else {
+                    originPage = Database.getCatalog().getDatabaseFile(
+                            node.getData().getId().getTableId()).readPage(node.getData().getId()
+                    );  // 此时originPage的dirty标志为False
+                }
                 node.setData(originPage);
-                this.put(node);
-                this.lruCache.put(originPage.getId(), node);
             }
         }
     }
@@ -808,16 +1380,31 @@ public class BufferPool {
         List<Page> curPage = dbFile.insertTuple(tid, t);
         for (Page page : curPage) {
             page.markDirty(true, tid);
-            Node<Page> curNode = new Node<>(page);
-            if (this.lruCache.get(page.getId()) != null) {
-                // BTree的测试中，page可能会分裂，新分裂出来的page可能不在cache中，自然不用remove
-                this.remove(this.lruCache.get(page.getId()));
-            }
-            this.put(curNode);
-            this.lruCache.put(curNode.getData().getId(), curNode);
+            this.cachePage(page);
+            this.recordDirty(tid, page.getId());
         }
     }
 
+    // 记录tid修改过的page
+    private void recordDirty(TransactionId tid, PageId pid) {
+        this.dirtiedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * The pages tid may have dirtied: those modified through insertTuple or
+     * deleteTuple (including new pages a DbFile created without locking
+     * them), plus those it holds locks on, since a caller holding a write
+     * lock may also modify and mark the page itself.
+     */
+    private Set<PageId> pagesDirtiedBy(TransactionId tid) {
+        Set<PageId> pages = new HashSet<>(this.lockManager.pagesLockedBy(tid));
+        Set<PageId> dirtied = this.dirtiedPages.get(tid);
+        if (dirtied != null) {
+            pages.addAll(dirtied);
+        }
+        return pages;
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -840,17 +1427,14 @@ public class BufferPool {
         List<Page> curPage = dbFile.deleteTuple(tid, t);
         for (Page page : curPage) {
             page.markDirty(true, tid);
-            Node<Page> curNode = new Node<>(page);
-            if (this.lruCache.get(page.getId()) != null) {
-                this.remove(this.lruCache.get(page.getId()));
-            }
-            this.put(curNode);
-            this.lruCache.put(page.getId(), curNode);
+            this.cachePage(page);
+            this.recordDirty(tid, page.getId());
         }
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages, and all committed pages not yet written back,
+     * to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
@@ -858,7 +1442,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         for (Map.Entry<PageId, Node<Page>> entry : this.lruCache.entrySet()) {
-            if (entry.getValue().getData().isDirty() != null) {
+            if (entry.getValue().getData().isDirty() != null
+                    || this.unflushedCommits.contains(entry.getKey())) {
                 this.flushPage(entry.getValue().getData().getId());
             }
         }
@@ -876,43 +1461,299 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        if (this.lruCache.get(pid) != null) {
-            this.remove(this.lruCache.get(pid));
+        if (this.lruCache.remove(pid) != null) {
+            this.replacementPolicy.pageRemoved(pid);
+        }
+        this.prefetching.remove(pid);  // 正在预读的旧镜像不能再装入
+        if (this.unflushedCommits.remove(pid)) {
+            // 没写回的已提交修改随page一起丢弃，恢复时也不再重做，否则它会一直占着日志
+            Database.getLogFile().pageWritten(pid);
         }
-        this.lruCache.remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. A dirty page is logged first, and
+     * its contents become its new before image, so the next record for it
+     * only describes what changed since. If the transaction that dirtied
+     * it later aborts, the write is undone from the log.
+     * <p>
+     * Before the page is written the log is forced up to the page's LSN,
+     * the end of the last record logged for it. A dirty page has just been
+     * logged here, so its write always costs a force; only a clean page
+     * holding committed changes not yet written back (see NO FORCE in
+     * {@link #flushPages}) finds its records on disk already and skips it.
+     * Page LSNs are kept in memory only, so a page read back from disk has
+     * LSN 0 and never forces the log.
      *
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page dirtyPage = this.lruCache.get(pid).getData();
+        Node<Page> node = this.lruCache.get(pid);
+        if (node == null) {
+            return;
+        }
+        Page dirtyPage = node.getData();
         TransactionId dirtier = dirtyPage.isDirty();
         if (dirtier != null){
             Database.getLogFile().logWrite(dirtier, dirtyPage.getBeforeImage(), dirtyPage);
-            Database.getLogFile().force();
+            this.stolenFrom.add(dirtier);  // 提交时会移除
         }
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(dirtyPage);  // 写入磁盘
-        dirtyPage.markDirty(false, null);
+        Database.getLogFile().forceTo(dirtyPage.getLsn());  // WAL：日志只需落盘到这个page的LSN，刚写的记录总要force
+        this.writePage(pid, dirtyPage);
+    }
+
+    // 把page写入磁盘，调用前日志必须已经落盘到page的LSN
+    private void writePage(PageId pid, Page page) throws IOException {
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);  // 写入磁盘
+        Database.getLogFile().pageWritten(pid);
+        page.markDirty(false, null);
+        page.setBeforeImage();
+        this.unflushedCommits.remove(pid);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write back those of the specified pages that hold committed changes
+     * not yet on disk, for a checkpoint. The pool is locked for one page
+     * at a time, so other threads wait for at most one page write rather
+     * than for the whole flush. Pages dirtied again by a running
+     * transaction are left alone.
+     */
+    public void flushCommittedPages(Collection<PageId> pids) throws IOException {
+        for (PageId pid : pids) {
+            synchronized (this) {
+                Node<Page> node = this.lruCache.get(pid);
+                if (node != null && node.getData().isDirty() == null
+                        && this.unflushedCommits.contains(pid)) {
+                    this.flushPage(pid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a background thread that writes back committed pages, so that
+     * eviction finds clean frames instead of writing a page itself. Every
+     * intervalMillis, or sooner when eviction had to write a page, the
+     * thread runs {@link #writeBehind}. Only useful under NO FORCE, where
+     * commit leaves its pages in the pool.
+     */
+    public void startBackgroundWriter(long intervalMillis) {
+        synchronized (this.writerSignal) {
+            if (this.backgroundWriter != null) {
+                return;
+            }
+            Thread t = new Thread(() -> runBackgroundWriter(intervalMillis), "simpledb-write-behind");
+            t.setDaemon(true);  // 不阻止JVM退出
+            this.backgroundWriter = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Stop the background writer, if it is running, and wait for its
+     * current pass to finish.
+     */
+    public void stopBackgroundWriter() {
+        Thread t;
+        synchronized (this.writerSignal) {
+            t = this.backgroundWriter;
+            this.backgroundWriter = null;
+            this.writerSignal.notifyAll();
+        }
+        // 不用interrupt：写盘时被中断会关闭文件的channel
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runBackgroundWriter(long intervalMillis) {
+        Thread self = Thread.currentThread();
+        while (true) {
+            synchronized (this.writerSignal) {
+                if (this.backgroundWriter != self) {
+                    return;
+                }
+            }
+            try {
+                writeBehind();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();  // 没写回的page留给淘汰和检查点
+            }
+            synchronized (this.writerSignal) {
+                if (this.backgroundWriter != self) {
+                    return;
+                }
+                try {
+                    this.writerSignal.wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write back, in one pass, up to {@link #WRITE_BEHIND_BATCH} committed
+     * pages whose log records are already on disk, so no page costs a log
+     * force. Adjacent pages of a HeapFile are written with one write of up
+     * to {@link #WRITE_BEHIND_RUN} pages. A page is skipped if it was
+     * dirtied again, or if a transaction holds a write lock on it; the
+     * pass holds a shared lock on the pages of a run while it writes them.
+     * The pool is locked for one run at a time.
+     *
+     * @return the number of pages written
+     */
+    public int writeBehind() throws IOException {
+        long flushedLsn = Database.getLogFile().getFlushedLsn();
+        // 按表和页号排序，相邻的page可以合并成一次写
+        TreeMap<Integer, TreeMap<Integer, PageId>> byTable = new TreeMap<>();
+        int candidates = 0;
+        for (PageId pid : this.unflushedCommits) {
+            if (candidates >= WRITE_BEHIND_BATCH) {
+                break;
+            }
+            Node<Page> node = this.lruCache.get(pid);
+            if (node != null && node.getData().isDirty() == null && node.getData().getLsn() <= flushedLsn) {
+                byTable.computeIfAbsent(pid.getTableId(), k -> new TreeMap<>()).put(pid.pageNumber(), pid);
+                candidates++;
+            }
+        }
+        int written = 0;
+        TransactionId writer = new TransactionId();
+        try {
+            for (TreeMap<Integer, PageId> pages : byTable.values()) {
+                List<PageId> run = new ArrayList<>();
+                for (PageId pid : pages.values()) {
+                    if (!run.isEmpty() && (run.size() >= WRITE_BEHIND_RUN
+                            || run.get(run.size() - 1).pageNumber() + 1 != pid.pageNumber())) {
+                        written += writeRun(writer, run, flushedLsn);
+                        run.clear();
+                    }
+                    run.add(pid);
+                }
+                if (!run.isEmpty()) {
+                    written += writeRun(writer, run, flushedLsn);
+                }
+            }
+        } finally {
+            this.lockManager.removeTidLocks(writer);
+        }
+        return written;
+    }
+
+    // 写回一组相邻的page，中间被跳过的page会把它分成几次写
+    private int writeRun(TransactionId writer, List<PageId> run, long flushedLsn) throws IOException {
+        List<PageId> locked = new ArrayList<>();
+        for (PageId pid : run) {
+            if (this.lockManager.tryAcquireLock(pid, writer, Permissions.READ_ONLY)) {
+                locked.add(pid);
+            }
+        }
+        int written = 0;
+        synchronized (this) {
+            List<Page> pages = new ArrayList<>();
+            for (PageId pid : locked) {
+                Node<Page> node = this.lruCache.get(pid);
+                boolean writable = node != null && node.getData().isDirty() == null
+                        && node.getData().getLsn() <= flushedLsn && this.unflushedCommits.contains(pid);
+                if (!pages.isEmpty() && (!writable
+                        || pages.get(pages.size() - 1).getId().pageNumber() + 1 != pid.pageNumber())) {
+                    written += writePages(pages);
+                    pages.clear();
+                }
+                if (writable) {
+                    pages.add(node.getData());
+                }
+            }
+            if (!pages.isEmpty()) {
+                written += writePages(pages);
+            }
+        }
+        for (PageId pid : locked) {
+            this.lockManager.removeLock(writer, pid);
+        }
+        return written;
+    }
+
+    // 写回已提交且干净的page，日志已经落盘到它们的LSN
+    private int writePages(List<Page> pages) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pages.get(0).getId().getTableId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).writePages(pages);
+            this.writeBehindWrites.increment();
+        } else {
+            for (Page page : pages) {
+                file.writePage(page);
+                this.writeBehindWrites.increment();
+            }
+        }
+        for (Page page : pages) {
+            Database.getLogFile().pageWritten(page.getId());
+            this.unflushedCommits.remove(page.getId());
+        }
+        this.writeBehindPages.add(pages.size());
+        return pages.size();
+    }
+
+    /**
+     * @return the number of pages written back by {@link #writeBehind}
+     */
+    public long getWriteBehindPageCount() {
+        return this.writeBehindPages.sum();
+    }
+
+    /**
+     * @return the number of write calls {@link #writeBehind} issued; less
+     *         than the number of pages when adjacent pages were coalesced
+     */
+    public long getWriteBehindWriteCount() {
+        return this.writeBehindWrites.sum();
+    }
+
+    /**
+     * Write all pages of the specified transaction to disk. Only the pages
+     * the transaction modified are visited; once written, their contents
+     * become their new before images. Every page is logged before any is
+     * written, so one log force covers all of them.
+     * <p>
+     * Under NO FORCE the pages are only logged, not forced, and are left in
+     * the pool clean but marked as not yet written back.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        Node<Page> node = this.head.getNext();
-        while (!node.equals(this.tail)) {
-            node.getData().setBeforeImage();
-            if (node.getData().isDirty() == tid) {
-                this.flushPage(node.getData().getId());
+        LogFile log = Database.getLogFile();
+        List<Page> logged = new ArrayList<>();
+        long maxLsn = 0;
+        for (PageId pid : pagesDirtiedBy(tid)) {
+            Node<Page> node = this.lruCache.get(pid);
+            if (node == null) {
+                continue;
+            }
+            Page page = node.getData();
+            if (tid.equals(page.isDirty())) {
+                log.logWrite(tid, page.getBeforeImage(), page);  // 先写日志（需要旧的before image），再更新before image
+                if (this.force) {
+                    logged.add(page);
+                    maxLsn = Math.max(maxLsn, page.getLsn());
+                } else {
+                    this.unflushedCommits.add(pid);
+                    page.markDirty(false, null);
+                }
+            }
+            page.setBeforeImage();
+        }
+        if (!logged.isEmpty()) {
+            log.forceTo(maxLsn);  // 所有page共用一次force
+            for (Page page : logged) {
+                this.writePage(page.getId(), page);
             }
-            node = node.getNext();
         }
     }
 
@@ -923,15 +1764,52 @@ public class BufferPool {
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        Node<Page> node = this.tail.getPrev();
-        while (!node.equals(this.head) && node.getData().isDirty() != null) {
-            node = node.getPrev();
+        // 由替换策略选出一个干净页，优先选已经写回磁盘的，淘汰时就不用写盘
+        PageId victim = chooseCleanVictim();
+        if (victim == null) {
+            victim = this.replacementPolicy.chooseVictim(pid -> {
+                Node<Page> node = this.lruCache.get(pid);
+                return node != null && node.getData().isDirty() == null;
+            });
+        }
+        if (victim == null && this.steal) {
+            // STEAL：没有干净页时写回一个脏页，flushPage会先把UPDATE记录刷到日志
+            victim = this.replacementPolicy.chooseVictim(pid -> this.lruCache.containsKey(pid));
+            if (victim != null) {
+                try {
+                    this.flushPage(victim);
+                } catch (IOException e) {
+                    throw new DbException("could not write back dirty page " + victim + ": " + e.getMessage());
+                }
+            }
         }
-        if (node.equals(this.head)) { // 全部都是脏页
+        if (victim == null) { // 全部都是脏页
             throw new DbException("all pages are dirty");
-        } else {
-            this.discardPage(node.getData().getId());
         }
+        if (this.unflushedCommits.contains(victim)) {
+            // NO FORCE：已提交的修改在淘汰时才写回；唤醒后台写线程，让它提前准备好干净页
+            synchronized (this.writerSignal) {
+                this.writerSignal.notifyAll();
+            }
+            try {
+                this.flushPage(victim);
+            } catch (IOException e) {
+                throw new DbException("could not write back committed page " + victim + ": " + e.getMessage());
+            }
+        }
+        this.discardPage(victim);
+    }
+
+    /**
+     * @return a page that can be discarded without writing anything back:
+     *         not dirty and with no committed change still to be written,
+     *         or null if there is none
+     */
+    private synchronized PageId chooseCleanVictim() {
+        return this.replacementPolicy.chooseVictim(pid -> {
+            Node<Page> node = this.lruCache.get(pid);
+            return node != null && node.getData().isDirty() == null && !this.unflushedCommits.contains(pid);
+        });
     }
 
 }
\ No newline at end of file
@@ -58,6 +58,7 @@ public class Catalog {
         // todo: find a more elegent way!
         for (int i = 0; i < tables.size(); ++i){
             if (tables.get(i).name.equals(name) || tables.get(i).id.equals(file.getId())){
+                closeFile(tables.get(i).file, file);
                 tables.set(i, new Table(file.getId(), file, name, pkeyField));
                 return;
             }
@@ -190,9 +191,24 @@ public class Catalog {
         throw new NoSuchElementException("no such element");
     }
     
-    /** Delete all tables from the catalog */
+    // 被替换的DbFile不再由catalog引用，关闭它的文件描述符
+    private static void closeFile(DbFile old, DbFile replacement) {
+        if (old == replacement) {
+            return;
+        }
+        try {
+            old.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (Table t : tables) {
+            closeFile(t.file, null);
+        }
         tables.clear();
         tables = new ArrayList<>();
         // just a test
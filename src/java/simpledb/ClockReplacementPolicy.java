@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a ring with a
+ * reference bit that a hit sets; the clock hand clears set bits as it sweeps
+ * and evicts the first evictable page whose bit is already clear.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+    private final ArrayList<Frame> ring = new ArrayList<>();  // protected by this
+    private int hand = 0;  // protected by this
+
+    public synchronized void pageAdded(PageId pid) {
+        Frame frame = new Frame(pid);
+        if (frames.putIfAbsent(pid, frame) == null) {
+            ring.add(frame);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null && !frame.referenced) {  // 已经置位时不再写，减少缓存行争用
+            frame.referenced = true;
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame frame = frames.remove(pid);
+        if (frame == null) {
+            return;
+        }
+        int index = ring.indexOf(frame);
+        ring.remove(index);
+        if (index < hand) {
+            hand--;
+        }
+        if (hand >= ring.size()) {
+            hand = 0;
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        // 最多转两圈：第一圈清掉引用位，第二圈一定能找到可以淘汰的page（如果存在的话）
+        for (int steps = 2 * ring.size(); steps > 0; steps--) {
+            Frame frame = ring.get(hand);
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else if (canEvict.test(frame.pid)) {
+                return frame.pid;  // hand停在这里，pageRemoved之后指向下一个frame
+            }
+            hand = (hand + 1) % ring.size();
+        }
+        return null;
+    }
+}
@@ -88,4 +88,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Release the file descriptors held by this DbFile. Called by the
+     * Catalog when the table is replaced or the catalog is cleared; a file
+     * that is used again afterwards reopens them.
+     *
+     * @throws IOException if closing fails
+     */
+    public default void close() throws IOException {
+    }
 }
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * DbFileChannel keeps one FileChannel open for the lifetime of a DbFile, so
+ * a page miss costs a single read instead of an open, seek, read and close.
+ * All reads and writes are positional: threads sharing the channel never
+ * move a common file pointer, and so need no lock around their I/O.
+ * <p>
+ * The channel is opened on first use. A FileChannel is closed for good if a
+ * thread is interrupted in the middle of an operation on it; the channel is
+ * then reopened and the operation retried once. The retry runs with the
+ * thread's interrupt status cleared, so it does not fail the same way, and
+ * the status is restored afterwards for the caller to act on.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    private final File file;
+
+    private volatile FileChannel channel;
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel open(FileChannel stale) throws IOException {
+        if (this.channel == null || this.channel == stale) {
+            this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = this.channel;
+        return ch != null && ch.isOpen() ? ch : open(ch);
+    }
+
+    private interface ChannelOp<T> {
+        T apply(FileChannel ch) throws IOException;
+    }
+
+    private <T> T run(ChannelOp<T> op) throws IOException {
+        FileChannel ch = channel();
+        try {
+            return op.apply(ch);
+        } catch (ClosedChannelException e) {
+            // 中断标志还在的话重开的channel会被同样关闭，重试期间先清除，结束后恢复
+            boolean interrupted = Thread.interrupted();
+            try {
+                return op.apply(open(ch));
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read up to buf.length bytes starting at the given file offset.
+     *
+     * @return the number of bytes read, which is less than buf.length only
+     *         if the end of the file was reached, or -1 if position is at or
+     *         past the end of the file
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        return run(ch -> readFully(ch, buf, position));
+    }
+
+    private static int readFully(FileChannel ch, byte[] buf, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            int n = ch.read(bb, position + bb.position());
+            if (n < 0) {
+                break;  // 到达文件末尾
+            }
+        }
+        return bb.position() == 0 && buf.length > 0 ? -1 : bb.position();
+    }
+
+    /**
+     * Write all of data starting at the given file offset, extending the
+     * file if necessary.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        run(ch -> {
+            writeFully(ch, data, position);
+            return null;
+        });
+    }
+
+    private static void writeFully(FileChannel ch, byte[] data, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (bb.hasRemaining()) {
+            ch.write(bb, position + bb.position());
+        }
+    }
+
+    /**
+     * Append data to the end of the file. Appends through this channel are
+     * serialized, so concurrent appends never overwrite each other.
+     *
+     * @return the offset at which data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = this.file.length();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Map a region of the file into memory, read-only. The mapping is shared
+     * with the OS page cache, so it sees later writes made through this
+     * channel, but it does not grow with the file.
+     *
+     * @param size number of bytes to map; position + size must not exceed
+     *             the length of the file
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return run(ch -> ch.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    /**
+     * Close the underlying channel. A later read or write reopens it.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+}
@@ -268,7 +268,10 @@ package simpledb;
 
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -286,6 +289,20 @@ public class HeapFile implements DbFile {
 
     private TupleDesc td;
 
+    private final DbFileChannel channel;  // 整个HeapFile共用一个channel，读写时不需要打开关闭文件
+
+    /**
+     * Number of pages covered by one mapped segment in memory-mapped mode.
+     */
+    public static final int MAP_SEGMENT_PAGES = 256;
+
+    private final boolean memoryMapped;
+
+    private final ArrayList<ByteBuffer> segments = new ArrayList<>();  // 已映射的段，按段号索引，未映射为null
+
+    // 还在直接引用映射的page，按page号索引；写盘覆盖它们之前先让它们复制一份
+    private final HashMap<Integer, List<WeakReference<HeapPage>>> mappedPages = new HashMap<>();
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -293,9 +310,37 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped mode. In that mode the file is mapped read-only in
+     * segments of {@link #MAP_SEGMENT_PAGES} pages, and readPage serves
+     * pages as slices of the mapping, without copying them, leaving the
+     * caching of file data to the OS. Writes still go through the file
+     * channel; the mapping shares the OS page cache and sees them. A page
+     * copies its slice into a private array on its first modification, and
+     * every page still sharing a region of the mapping is made to copy it
+     * before a write overwrites that region, so neither its undecoded tuples
+     * nor its before image change underneath it.
+     *
+     * @param f            the file that stores the on-disk backing store
+     * @param memoryMapped true to serve reads from a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
         this.file = f;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return true if reads are served from a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
     }
 
     /**
@@ -338,27 +383,148 @@ public class HeapFile implements DbFile {
         int pageNo = pid.pageNumber();
         int pageSize = BufferPool.getPageSize();
         try {
-            RandomAccessFile curFile = new RandomAccessFile(this.file, "r");
+            HeapPageId id = new HeapPageId(pid.getTableId(), pid.pageNumber());
+            if (this.memoryMapped) {
+                HeapPage page = readMappedPage(id);
+                if (page != null) {
+                    return page;
+                }
+            }
             byte[] data = new byte[pageSize];
-            curFile.seek((long) pageNo * pageSize);
-            curFile.read(data);
-            HeapPage curPage = new HeapPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
-            curFile.close();
-            return curPage;
+            this.channel.read(data, (long) pageNo * pageSize);
+            return new HeapPage(id, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
         throw new IllegalArgumentException();
     }
 
+    /**
+     * Returns a read-only slice of the mapping covering the given page,
+     * mapping its segment first if necessary. A segment mapped while it was
+     * the short last segment of the file is remapped once the file has
+     * grown past it.
+     *
+     * @return the page's bytes, or null if the page is beyond the end of the file
+     */
+    private synchronized ByteBuffer mappedPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int segNo = pageNo / MAP_SEGMENT_PAGES;
+        int offset = (pageNo % MAP_SEGMENT_PAGES) * pageSize;
+        while (this.segments.size() <= segNo) {
+            this.segments.add(null);
+        }
+        ByteBuffer segment = this.segments.get(segNo);
+        if (segment == null || segment.capacity() < offset + pageSize) {
+            long start = (long) segNo * MAP_SEGMENT_PAGES * pageSize;
+            long size = Math.min((long) MAP_SEGMENT_PAGES * pageSize, this.file.length() - start);
+            if (size < offset + pageSize) {
+                return null;
+            }
+            segment = this.channel.map(start, size);
+            this.segments.set(segNo, segment);
+        }
+        ByteBuffer slice = segment.duplicate();
+        slice.position(offset);
+        slice.limit(offset + pageSize);
+        return slice.slice();
+    }
+
+    /**
+     * Returns a page whose raw bytes are a slice of the mapping, remembering
+     * it so that it can be detached before its region is overwritten.
+     *
+     * @return the page, or null if it is beyond the end of the file
+     */
+    private synchronized HeapPage readMappedPage(HeapPageId id) throws IOException {
+        ByteBuffer slice = mappedPage(id.pageNumber());
+        if (slice == null) {
+            return null;
+        }
+        HeapPage page = new HeapPage(id, slice, true);
+        List<WeakReference<HeapPage>> refs = this.mappedPages.computeIfAbsent(id.pageNumber(), k -> new ArrayList<>());
+        refs.removeIf(r -> r.get() == null);
+        refs.add(new WeakReference<>(page));
+        return page;
+    }
+
+    // 调用者需持有this的monitor：覆盖[first, first + count)之前，让引用这些区域的page复制原始数据
+    private void detachMappedPages(int first, int count) {
+        for (int pageNo = first; pageNo < first + count; pageNo++) {
+            List<WeakReference<HeapPage>> refs = this.mappedPages.remove(pageNo);
+            if (refs == null) {
+                continue;
+            }
+            for (WeakReference<HeapPage> r : refs) {
+                HeapPage page = r.get();
+                if (page != null) {
+                    page.detach();
+                }
+            }
+        }
+    }
+
+    // 写入从first开始的若干page；映射模式下先分离共享这些区域的page，分离和写入之间不能有新的映射读
+    private void write(byte[] data, int first) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (!this.memoryMapped) {
+            this.channel.write(data, (long) pageSize * first);
+            return;
+        }
+        synchronized (this) {
+            detachMappedPages(first, data.length / pageSize);
+            this.channel.write(data, (long) pageSize * first);
+        }
+    }
+
+    // 文件变长后，最后一个段的映射不再覆盖整个段，需要重新映射
+    private synchronized void unmapLastSegment() {
+        if (!this.segments.isEmpty()) {
+            this.segments.set(this.segments.size() - 1, null);
+        }
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile file = new RandomAccessFile(this.file, "rw");  // 通过RandomAccessFile写
-        file.seek((long) BufferPool.getPageSize() * page.getId().pageNumber());
-        file.write(page.getPageData());
-        file.close();
+        write(page.getPageData(), page.getId().pageNumber());
+    }
+
+    /**
+     * Push a run of pages with consecutive page numbers to disk with a
+     * single write.
+     *
+     * @param pages the pages to write, in page number order, with no gaps
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int first = pages.get(0).getId().pageNumber();
+        byte[] data = new byte[pageSize * pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).getId().pageNumber() != first + i) {
+                throw new IllegalArgumentException("pages are not consecutive");
+            }
+            System.arraycopy(pages.get(i).getPageData(), 0, data, i * pageSize, pageSize);
+        }
+        write(data, first);
+    }
+
+    /**
+     * Close the file channel and drop the memory mappings. The HeapFile can
+     * still be used; the channel is reopened and pages remapped on demand.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            // 旧的映射在page里仍然有效，之后的写盘不会再分离它们，现在就分离
+            for (Integer pageNo : new ArrayList<>(this.mappedPages.keySet())) {
+                detachMappedPages(pageNo, 1);
+            }
+            this.segments.clear();
+        }
+        this.channel.close();
     }
 
     /**
@@ -397,6 +563,9 @@ public class HeapFile implements DbFile {
         );
         curPage.insertTuple(t);
         writePage(curPage);
+        if (this.memoryMapped) {
+            unmapLastSegment();
+        }
         res.add(curPage);
         return res;
     }
@@ -421,6 +590,11 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Maximum number of pages a scan reads ahead of the page it is on.
+     */
+    public static final int MAX_READ_AHEAD = 8;
+
     public class HeapFileIterator implements DbFileIterator {
 
         private int curPageNo;
@@ -433,6 +607,16 @@ public class HeapFile implements DbFile {
 
         private TransactionId tid;
 
+        private BufferPool.ScanRing ring;  // 大表扫描使用的私有frame，小表为null
+
+        private int readAheadTo;  // 已经发出预读的最大页号
+
+        private final TreeMap<Integer, Future<?>> pendingReads = new TreeMap<>();  // 还未完成的预读，按页号排序
+
+        private long lastAdvance;  // 上一次翻页的时间
+
+        private double advanceNanos;  // 平均翻页间隔
+
         public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
             this.heapFile = heapFile;
             this.tid = tid;
@@ -442,13 +626,60 @@ public class HeapFile implements DbFile {
 
         public Iterator<Tuple> getNextPage(HeapPageId id) throws TransactionAbortedException, DbException {
             BufferPool pool = Database.getBufferPool();  // 从bufferpool中读取page，如果没有再从磁盘读（getPage中有判断）
-            HeapPage page = (HeapPage) pool.getPage(this.tid, id, Permissions.READ_ONLY);
+            HeapPage page = (HeapPage) pool.getPage(this.tid, id, Permissions.READ_ONLY, this.ring);
+            this.readAhead(pool, id.pageNumber());
             return page.iterator();
         }
 
+        /**
+         * Issue background reads for the pages following pageNo. The depth is
+         * chosen so that a page read started now completes before the scan
+         * gets to it: the average disk read time divided by the time the
+         * scan spends on each page, plus one.
+         */
+        private void readAhead(BufferPool pool, int pageNo) {
+            long now = System.nanoTime();
+            if (this.lastAdvance != 0) {
+                long elapsed = now - this.lastAdvance;
+                this.advanceNanos = this.advanceNanos == 0 ? elapsed : 0.75 * this.advanceNanos + 0.25 * elapsed;
+            }
+            this.lastAdvance = now;
+
+            // 已经扫描到的page不再需要预读
+            cancelReadAhead(this.pendingReads.headMap(pageNo, true));
+
+            int depth = 1;
+            double readNanos = pool.getAverageReadNanos();
+            if (this.advanceNanos > 0 && readNanos > 0) {
+                depth = (int) Math.min(MAX_READ_AHEAD, Math.ceil(readNanos / this.advanceNanos) + 1);
+            }
+            if (this.ring != null) {
+                depth = Math.min(depth, this.ring.size() / 2);  // 预读的page不能把正在扫描的page挤出ring
+            }
+            int last = Math.min(pageNo + depth, this.pageNum - 1);
+            for (int i = Math.max(this.readAheadTo, pageNo) + 1; i <= last; i++) {
+                Future<?> read = pool.prefetchPage(new HeapPageId(this.heapFile.getId(), i), this.ring);
+                if (read != null) {
+                    this.pendingReads.put(i, read);
+                }
+            }
+            this.readAheadTo = Math.max(this.readAheadTo, last);
+        }
+
+        private void cancelReadAhead(Map<Integer, Future<?>> reads) {
+            for (Future<?> read : reads.values()) {
+                read.cancel(false);
+            }
+            reads.clear();
+        }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
             this.curPageNo = 0;
+            this.ring = Database.getBufferPool().newScanRing(this.pageNum);
+            this.readAheadTo = 0;
+            this.lastAdvance = 0;
+            this.advanceNanos = 0;
             HeapPageId pageId = new HeapPageId(this.heapFile.getId(), 0);  // table和HeapFile一一对应
             this.iterator = this.getNextPage(pageId);
         }
@@ -487,6 +718,7 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            cancelReadAhead(this.pendingReads);
             this.iterator = null;
         }
     }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
 /**
@@ -12,21 +13,27 @@ import java.util.function.Consumer;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlottedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[];  // 已解码或新插入的tuple；槽在使用但还没解码时为null
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private volatile ByteBuffer raw;  // 读入时的原始数据，没有被修改过的槽从这里解码
+    private boolean shared;  // raw是否还是文件映射的一部分，由this的monitor保护
+    private DataInputStream rawStream;  // 解码用，由this的monitor保护
+    private ByteBuffer rawCursor;
+
+    ByteBuffer oldData;  // before image，只读；为null表示before image就是当前内容
+    private final Object oldDataLock = new Object();
 
     // todo: be careful about the variable here
 
     private boolean isDirty = false;
     private TransactionId changeTid;
+    private volatile long lsn = 0;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -45,27 +52,49 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes. Only the
+     * header is read up front; the page keeps a read-only view of the
+     * buffer, and a tuple is decoded from it when the page's iterator first
+     * reaches its slot. The buffer, and the array of the byte[] constructor,
+     * must not be modified afterwards.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage over a buffer that may be modified later, such as a
+     * slice of a memory-mapped file. The buffer is used without copying
+     * until the page is first modified or {@link #detach} is called, after
+     * which the page works on a private copy. The owner of the buffer must
+     * call detach before modifying it.
+     *
+     * @param shared true if data may be modified after detach is called
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, boolean shared) throws IOException {
         this.pid = id;
+        this.shared = shared;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.raw = data.slice().asReadOnlyBuffer();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (raw.capacity() < header.length + numSlots * td.getSize()) {
+            throw new EOFException("page data is shorter than a page");
         }
-        dis.close();
+        raw.duplicate().get(header);
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
+
+        // 刚读入的page和原始数据一致，before image直接使用原始数据
+        oldData = raw;
     }
     /*
     public HeapPage(HeapPageId id) throws IOException {
@@ -78,6 +107,35 @@ public class HeapPage implements Page {
         setBeforeImage();
     }*/
 
+    /**
+     * An InputStream reading the remaining bytes of a ByteBuffer.
+     */
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -98,14 +156,28 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery. If a before image has been saved, the returned
+        page shares its bytes and no copy is made; otherwise the page has
+        not changed since {@link #setBeforeImage}, and its current contents
+        are serialized with {@link #getPageData}. */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // 提交之后还没有被修改过，当前内容就是before image
+                oldDataRef = ByteBuffer.wrap(getPageData());
+            } else if (oldDataRef == raw && isShared()) {
+                // 返回的page不会被HeapFile跟踪，不能让它引用映射
+                detach();
+                synchronized(oldDataLock)
+                {
+                    oldDataRef = oldData;
+                }
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -115,10 +187,58 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents the before image. Nothing is copied here:
+     * the contents are saved by the next insertTuple or deleteTuple, so a
+     * page that is not written again never pays for a copy.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** @return true if the page still uses the buffer it was created over */
+    synchronized boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Stop sharing the buffer the page was created over: copy it into a
+     * private array, which also becomes the before image if that is still
+     * the original data. Does nothing for a page that does not share its
+     * buffer.
+     */
+    synchronized void detach() {
+        if (!shared) {
+            return;
+        }
+        ByteBuffer old = raw;
+        byte[] copy = new byte[old.capacity()];
+        ByteBuffer src = old.duplicate();
+        src.clear();
+        src.get(copy);
+        raw = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        rawStream = null;
+        rawCursor = null;
+        synchronized(oldDataLock)
+        {
+            if (oldData == old) {
+                oldData = raw;
+            }
+        }
+        shared = false;
+    }
+
+    // 提交后第一次修改page之前，保存当前内容作为before image
+    private void captureBeforeImage() {
+        detach();  // 第一次修改时复制映射，before image不再随文件改变
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+            }
         }
     }
 
@@ -131,21 +251,29 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it from the page's raw
+     * bytes the first time it is asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple tupleAt(int slotId) throws NoSuchElementException {
+        if (tuples[slotId] == null) {
+            tuples[slotId] = readTuple(slotId);
+        }
+        return tuples[slotId];
+    }
+
+    /**
+     * Decode the tuple in the given slot from the raw page data. The caller
+     * must hold this page's monitor.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        if (rawStream == null) {
+            rawCursor = raw.duplicate();
+            rawStream = new DataInputStream(new ByteBufferInputStream(rawCursor));
         }
+        int offset = header.length + slotId * td.getSize();
+        rawCursor.limit(offset + td.getSize());
+        rawCursor.position(offset);
+        DataInputStream dis = rawStream;
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -177,38 +305,42 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];  // 空槽和末尾的padding都是0
+        ByteBuffer out = ByteBuffer.wrap(data);
+        DataOutputStream dos = new DataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.put((byte) b);
+            }
+        });
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        out.put(header);
 
         // create the tuples
+        ByteBuffer src = raw.duplicate();
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                continue;
+            }
 
-                }
+            int offset = header.length + i * td.getSize();
+            Tuple t = tuples[i];
+            if (t == null) {
+                // 没有解码过的槽，直接复制原始数据
+                src.limit(offset + td.getSize());
+                src.position(offset);
+                out.position(offset);
+                out.put(src);
                 continue;
             }
 
             // non-empty slot
+            out.position(offset);
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -218,22 +350,7 @@ public class HeapPage implements Page {
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -263,6 +380,7 @@ public class HeapPage implements Page {
         if (!t.getRecordId().getPageId().equals(pid) || !isSlotUsed(t.getRecordId().tupleno())){ //|| !isSlotUsed(t.getRecordId().tupleno())
             throw new DbException("delete non-exist element");
         }
+        captureBeforeImage();
         tuples[t.getRecordId().tupleno()] = null;
         markSlotUsed(t.getRecordId().tupleno(), false);
     }
@@ -279,6 +397,7 @@ public class HeapPage implements Page {
         // not necessary for lab1
         for (int i = 0; i < numSlots; ++i){
             if (!isSlotUsed(i)){
+                captureBeforeImage();
                 tuples[i] = t;
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
@@ -309,6 +428,71 @@ public class HeapPage implements Page {
         else return null;
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public byte[] getSlotData(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        int size = td.getSize();
+        byte[] data = new byte[size];
+        Tuple t = tuples[slot];
+        if (t == null) {
+            // 没有解码过的槽，直接复制原始数据
+            ByteBuffer src = raw.duplicate();
+            src.position(header.length + slot * size);
+            src.get(data);
+            return data;
+        }
+        ByteBuffer out = ByteBuffer.wrap(data);
+        DataOutputStream dos = new DataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.put((byte) b);
+            }
+        });
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+        } catch (IOException e) {
+            // 截断的槽数据会被写进日志，不能返回
+            throw new RuntimeException(e);
+        }
+        return data;
+    }
+
+    public void setSlotData(int slot, byte[] data) {
+        if (data == null) {
+            tuples[slot] = null;
+            markSlotUsed(slot, false);
+            return;
+        }
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -355,15 +539,8 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
 
-    private class HPageIterator<Tuple> implements Iterator<Tuple>{
+    private class HPageIterator implements Iterator<Tuple>{
         private int index = 0;
-        private Tuple[] iterValues;
-        private int bound;
-
-        public HPageIterator(Tuple[] iterValues) {
-            this.iterValues = iterValues;
-            bound = getNumTuples() - getNumEmptySlots();
-        }
 
         @Override
         public void remove() {
@@ -377,7 +554,7 @@ public class HeapPage implements Page {
 
         @Override
         public boolean hasNext() {
-            for (; index < bound; ++index){
+            for (; index < numSlots; ++index){
                 if (isSlotUsed(index)){
                     return true;
                 }
@@ -388,7 +565,7 @@ public class HeapPage implements Page {
         @Override
         public Tuple next() {
             if (hasNext()) {
-                return iterValues[index++];
+                return tupleAt(index++);  // 迭代到这个槽时才解码
             }
             else throw new NoSuchElementException("out of boundary");
         }
@@ -396,7 +573,7 @@ public class HeapPage implements Page {
 
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new HPageIterator<>(tuples);
+        return new HPageIterator();
     }
 
 }
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements the relational join operation
+ * by probing an index on the inner relation once for every outer tuple,
+ * instead of rescanning or hashing the whole inner relation.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator outer;
+    private IndexDbIterator inner;
+    private Tuple outerTuple = null;
+    private boolean innerOpen = false;
+
+    /**
+     * Constructor. Accepts the two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be one an index can answer (not LIKE or NOT_EQUALS)
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Index access method for the right(inner) relation to join,
+     *            indexed on the field p.getField2()
+     * @throws IllegalArgumentException
+     *             if the operator of p cannot be answered by an index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, IndexDbIterator child2) {
+        reverse(p.getOperator());
+        this.p = p;
+        this.outer = child1;
+        this.inner = child2;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // inner在第一次探测时才打开
+        outer.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        outer.close();
+        inner.close();
+        innerOpen = false;
+        outerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        outerTuple = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Each outer tuple t1 is joined with the inner tuples returned
+     * by the index for the predicate <tt>field2 op' t1.field1</tt>, where op'
+     * is the join operator with its sides swapped; those are exactly the inner
+     * tuples t2 for which <tt>t1.field1 op t2.field2</tt> holds.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null && inner.hasNext()) {
+                return Tuple.mergeJoinTuples(outerTuple, inner.next());
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            outerTuple = outer.next();
+            IndexPredicate ipred = new IndexPredicate(reverse(p.getOperator()),
+                    outerTuple.getField(p.getField1()));
+            if (innerOpen) {
+                inner.rewind(ipred);
+            } else {
+                inner.open(ipred);
+                innerOpen = true;
+            }
+        }
+    }
+
+    /**
+     * @return the operator op' such that <tt>b op' a</tt> holds exactly when
+     *         <tt>a op b</tt> does
+     * @throws IllegalArgumentException
+     *             if op cannot be answered by an index
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            throw new IllegalArgumentException("cannot probe an index with " + op);
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.outer = children[0];
+        this.inner = (IndexDbIterator) children[1];
+    }
+
+}
@@ -34,6 +34,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * An equi-join whose right child is an unfiltered scan of a B+ tree keyed
+     * on the join field is instantiated as an {@link IndexNestedLoopJoin}
+     * probing that index.
      * 
      * @param lj
      *            The join being considered
@@ -67,8 +71,12 @@ public class JoinOptimizer {
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        IndexDbIterator probe = lj instanceof LogicalSubplanJoinNode ? null
+                : getIndexProbe(plan2, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.p == Predicate.Op.EQUALS && probe != null) {
+            j = new IndexNestedLoopJoin(p, plan1, probe);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -88,6 +96,28 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return an index scan over the table read by plan, if plan is an
+     *         unfiltered scan of a B+ tree keyed on field; null otherwise
+     */
+    private static IndexDbIterator getIndexProbe(DbIterator plan, int field) {
+        if (plan instanceof BTreeScan) {
+            BTreeScan s = (BTreeScan) plan;
+            return s.getIndexPredicate() == null && isIndexedOn(s.getTableId(), field) ? s : null;
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            return isIndexedOn(s.getTableId(), field)
+                    ? new BTreeScan(s.getTransactionId(), s.getTableId(), s.getAlias(), null) : null;
+        }
+        return null;
+    }
+
+    private static boolean isIndexedOn(int tableid, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -116,6 +146,25 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * When the right-hand side is the base table j.t2Alias, unfiltered and
+     * stored in a B+ tree keyed on the join field, an equi-join is costed as
+     * an {@link IndexNestedLoopJoin}: one scan of the left-hand side plus one
+     * index probe per left-hand tuple. The CPU term is counted in the same
+     * units as a nested loop's card1 * card2 predicate evaluations: each
+     * probe compares log2(card2) keys on its way down the tree, and the
+     * probes together return card1 * card2 * selectivity matching tuples.
+     * 
+     * @param innerIsBase
+     *            Whether the right-hand side is the base table j.t2Alias
+     *            rather than the result of earlier joins
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsBase) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
@@ -125,10 +174,42 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
+            if (innerIsBase && canProbeIndex(j)) {
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+                int pages = Math.max(f.numPages(), 1);
+                double height = TableStats.estimateIndexHeight(pages,
+                        f.getTupleDesc().getFieldType(f.keyField()));
+                // 每次探测：根指针page + 下降路径 + 一个leaf page
+                double probeCost = (2 + height) * cost2 / pages;
+                // 匹配的tuple数即card1 * card2 * selectivity，由join基数估计得出
+                int matches = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                        j.f1PureName, j.f2PureName, card1, card2, false,
+                        isPkey(j.t2Alias, j.f2PureName), null, p.getTableAliasToIdMapping());
+                double compares = card1 * (Math.log(Math.max(card2, 2)) / Math.log(2));
+                return cost1 + card1 * probeCost + compares + matches;
+            }
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /**
+     * @return true if j is an equi-join whose right-hand table is unfiltered
+     *         and stored in a B+ tree keyed on the join field
+     */
+    private boolean canProbeIndex(LogicalJoinNode j) {
+        if (j.p != Predicate.Op.EQUALS || j.t2Alias == null)
+            return false;
+        Integer tableid = p.getTableId(j.t2Alias);
+        if (tableid == null || p.hasFilter(j.t2Alias))
+            return false;
+        try {
+            return isIndexedOn(tableid, Database.getCatalog().getTupleDesc(tableid)
+                    .fieldNameToIndex(j.f2PureName));
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -248,6 +329,9 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        if (joins.isEmpty()) {
+            return joins;  // 单表查询，没有需要排序的join
+        }
         PlanCache cache = new PlanCache();
         CostCard bestCostCard = new CostCard();
         for (int i = 1; i < joins.size() + 1; i++) {  // 伪代码中，i从1到|j|
@@ -402,11 +486,15 @@ public class JoinOptimizer {
             }
         }
 
+        // 只有基本表(而不是之前join的结果)才能作为index探测的inner
+        boolean t1Base = news.isEmpty() || !doesJoin(prevBest, table1Alias);
+        boolean t2Base = news.isEmpty() || doesJoin(prevBest, table1Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2Base);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1Base);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -2,8 +2,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,33 +43,61 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself holds only a header.  Its first long integer
+represents the log sequence number (LSN) of the last written
+checkpoint, or -1 if there are no checkpoints.  It is followed by an
+integer format version, {@link #FORMAT_VERSION} (recovery refuses a log
+written in any other format), and the integer size of the log's
+segments.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are kept in a {@link SegmentedLog}: fixed-size
+segment files in the directory named after the log file with a
+".segments" suffix.  The LSN of a record is its position in the
+concatenation of all segments, and never changes; offsets in this
+description are LSNs.  Log records are variable length, and may span
+segments.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer type, a long integer
+transaction id, and the integer length of the data that follows.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with an integer CRC-32 checksum of the record
+up to and including its data, and a long integer file offset
+representing the position in the log file where the record began.  A
+record whose checksum or offset does not match was torn by a crash,
+and it and everything after it are ignored.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, SLOT_UPDATE,
+BEGIN, and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
+<li> A page id is logged as a one-byte page type tag, followed by
+the integer table id and page number.  Each page class is registered
+under a tag with {@link #registerPageType}, along with factories that
+rebuild its ids and pages; the pages of SimpleDb are registered by
+LogFile itself.
+
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+after image.  Each image is a page id followed by an integer length and
+that many bytes of page data.  See LogFile.print() for an example.
+
+<li>SLOT_UPDATE records describe a change to a {@link SlottedPage} slot
+by slot.  They consist of the page id, an integer count of changed
+slots, and for each slot
+its number followed by the slot's contents before and after the change.
+Each of these is an integer length and that many bytes of serialized
+tuple, or a length of -1 if the slot is empty.  Setting a slot is
+idempotent, so a SLOT_UPDATE record may be redone or undone against a
+page that already reflects it.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of the
+dirty page table: the pages with logged changes not yet written to
+disk, each with the offset of the first such change.  The format of the
+record is an integer count of the number of transactions, a long
+integer transaction id and a long integer first record offset for each
+active transaction, then an integer count of dirty pages, and a page id
+and a long integer first record offset for each dirty page.
 
 </ul>
 
@@ -74,7 +106,10 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile raf; // the header
+    private final SegmentedLog segments; // the records
+    private volatile int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private volatile File archiveDir = null;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,10 +117,127 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOT_UPDATE_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** The version of the log format written after the checkpoint
+        pointer at the start of the file. */
+    public static final int FORMAT_VERSION = 4;
+
+    /** The default size of a log segment, in bytes. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    // 文件头：检查点偏移、格式版本和段大小
+    final static int HEADER_SIZE = LONG_SIZE + INT_SIZE + INT_SIZE;
+    // 记录头：类型、事务id、内容长度；记录尾：校验和、起始偏移
+    final static int RECORD_HEAD_SIZE = INT_SIZE + LONG_SIZE + INT_SIZE;
+    final static int RECORD_TAIL_SIZE = INT_SIZE + LONG_SIZE;
+
+    // tags of the page types registered by LogFile
+    static final int HEAP_PAGE = 1;
+    static final int BTREE_ROOT_PTR_PAGE = 2;
+    static final int BTREE_INTERNAL_PAGE = 3;
+    static final int BTREE_LEAF_PAGE = 4;
+    static final int BTREE_HEADER_PAGE = 5;
+    static final int MAX_PAGE_TYPE = 127;
+
+    /** Creates the id of a page of a registered type from its table id
+        and page number.
+
+        @see #registerPageType
+    */
+    public interface PageIdFactory {
+        PageId create(int tableId, int pageNo);
+    }
+
+    /** Creates a page of a registered type from its id and serialized
+        contents.
+
+        @see #registerPageType
+    */
+    public interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    private static class PageType {
+        final int tag;
+        final PageIdFactory ids;
+        final PageFactory pages;
+
+        PageType(int tag, PageIdFactory ids, PageFactory pages) {
+            this.tag = tag;
+            this.ids = ids;
+            this.pages = pages;
+        }
+    }
+
+    private static final PageType[] pageTypesByTag = new PageType[MAX_PAGE_TYPE + 1];
+    private static final Map<Class<?>,PageType> pageTypesByClass = new ConcurrentHashMap<Class<?>,PageType>();
+
+    static {
+        registerPageType(HEAP_PAGE, HeapPage.class,
+                         (tableId, pageNo) -> new HeapPageId(tableId, pageNo),
+                         (pid, data) -> new HeapPage((HeapPageId)pid, data));
+        registerPageType(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class,
+                         (tableId, pageNo) -> new BTreePageId(tableId, pageNo, BTreePageId.ROOT_PTR),
+                         (pid, data) -> new BTreeRootPtrPage((BTreePageId)pid, data));
+        registerPageType(BTREE_INTERNAL_PAGE, BTreeInternalPage.class,
+                         (tableId, pageNo) -> new BTreePageId(tableId, pageNo, BTreePageId.INTERNAL),
+                         (pid, data) -> new BTreeInternalPage((BTreePageId)pid, data, keyField(pid)));
+        registerPageType(BTREE_LEAF_PAGE, BTreeLeafPage.class,
+                         (tableId, pageNo) -> new BTreePageId(tableId, pageNo, BTreePageId.LEAF),
+                         (pid, data) -> new BTreeLeafPage((BTreePageId)pid, data, keyField(pid)));
+        registerPageType(BTREE_HEADER_PAGE, BTreeHeaderPage.class,
+                         (tableId, pageNo) -> new BTreePageId(tableId, pageNo, BTreePageId.HEADER),
+                         (pid, data) -> new BTreeHeaderPage((BTreePageId)pid, data));
+    }
+
+    // B+树的内部节点和叶子节点还需要索引字段
+    private static int keyField(PageId pid) {
+        return ((BTreeFile)Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /** Register a page class, so that changes to its pages can be
+        logged.  The tag identifies the page type in the log, and must
+        not change once a log has been written with it.
+
+        @param tag the page type tag, between 1 and 127
+        @param pageClass the class of the pages
+        @param ids rebuilds the id of a page from its table id and page number
+        @param pages rebuilds a page from its id and getPageData()
+        @throws IllegalArgumentException if the tag is out of range, or
+        the tag or class is already registered
+    */
+    public static synchronized void registerPageType(int tag, Class<? extends Page> pageClass,
+                                                     PageIdFactory ids, PageFactory pages) {
+        if (tag < 1 || tag > MAX_PAGE_TYPE) {
+            throw new IllegalArgumentException("page type tag " + tag + " out of range");
+        }
+        if (pageTypesByTag[tag] != null || pageTypesByClass.containsKey(pageClass)) {
+            throw new IllegalArgumentException("page type " + tag + " (" + pageClass.getName() + ") already registered");
+        }
+        PageType type = new PageType(tag, ids, pages);
+        pageTypesByTag[tag] = type;
+        pageTypesByClass.put(pageClass, type);
+    }
+
+    private static PageType pageType(Class<?> pageClass) throws IOException {
+        PageType type = pageTypesByClass.get(pageClass);
+        if (type == null) {
+            throw new IOException("page type " + pageClass.getName() + " is not registered with the log");
+        }
+        return type;
+    }
+
+    private static synchronized PageType pageType(int tag) throws IOException {
+        PageType type = tag <= MAX_PAGE_TYPE ? pageTypesByTag[tag] : null;
+        if (type == null) {
+            throw new IOException("unknown page type " + tag + " in log");
+        }
+        return type;
+    }
 
     long currentOffset = -1;//protected by this
 //    int pageSize;
@@ -93,6 +245,27 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // bytes of UPDATE records written by each live transaction; read by the
+    // deadlock detector without taking the log monitor
+    final ConcurrentHashMap<Long,Long> tidToLogBytes = new ConcurrentHashMap<Long,Long>();
+
+    // offset of the first UPDATE record of each transaction that has not
+    // been rolled back or completed; protected by this
+    HashMap<Long,Long> tidToFirstUpdate = new HashMap<Long,Long>();
+
+    // dirty page table: pages with logged changes that are not on disk
+    // yet, and the offset of the first of them; protected by this
+    LinkedHashMap<PageId,DirtyPage> dirtyPages = new LinkedHashMap<PageId,DirtyPage>();
+
+    // group commit: a committer waits until the log is forced past its
+    // COMMIT record, and one thread forces on behalf of all of them
+    final Object forceLock = new Object();  // 锁顺序：先this，再forceLock
+    // 已经落盘的日志的末尾LSN；在forceLock下修改，读时不用加锁
+    private volatile long flushedLsn = 0;
+    private boolean forcing = false; // protected by forceLock
+    private volatile long groupCommitWindowMicros = 0;
+    private long forceCount = 0; // protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,6 +280,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new SegmentedLog(new File(f.getPath() + ".segments"));
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,17 +301,90 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            writeHeader();
         }
     }
 
+    // 清空日志，写一个没有检查点的文件头
+    private void writeHeader() throws IOException {
+        int size = segmentSize;
+        raf.setLength(0);
+        raf.seek(0);
+        raf.writeLong(NO_CHECKPOINT_ID);
+        raf.writeInt(FORMAT_VERSION);
+        raf.writeInt(size);
+        segments.reset(size);
+        currentOffset = segments.getFilePointer();
+        synchronized (forceLock) {
+            flushedLsn = currentOffset;
+        }
+    }
+
+    /** Set the size of the segment files.  Takes effect the next time
+        the log is started afresh; a recovered log keeps the size it was
+        written with.
+
+        @param bytes the segment size, at least one page
+    */
+    public void setSegmentSize(int bytes) {
+        if (bytes < BufferPool.getPageSize()) {
+            throw new IllegalArgumentException("log segments must hold at least a page");
+        }
+        segmentSize = bytes;
+    }
+
+    /** Set the directory that {@link #logTruncate} moves segments it no
+        longer needs into.  If null, the default, they are deleted.
+    */
+    public void setArchiveDirectory(File dir) {
+        archiveDir = dir;
+    }
+
+    /** Return the files of the log's segments, oldest first. */
+    public synchronized List<File> getSegmentFiles() throws IOException {
+        return segments.getFiles();
+    }
+
+    /** Append a record of the specified type at currentOffset, and move
+        currentOffset past it.  The caller holds the log monitor and has
+        called preAppend().
+
+        @return the length of the record
+    */
+    private int appendRecord(int type, long tid, byte[] payload) throws IOException {
+        byte[] record = encodeRecord(type, tid, payload, currentOffset);
+        segments.write(record);
+        currentOffset = segments.getFilePointer();
+        return record.length;
+    }
+
+    // 一次write写出整条记录：记录头、内容、校验和、起始偏移
+    static byte[] encodeRecord(int type, long tid, byte[] payload, long start) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEAD_SIZE + payload.length + RECORD_TAIL_SIZE);
+        buf.putInt(type).putLong(tid).putInt(payload.length).put(payload);
+        Checksum crc = newChecksum();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int)crc.getValue());
+        buf.putLong(start);
+        return buf.array();
+    }
+
+    static Checksum newChecksum() {
+        return new CRC32();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Return the number of bytes of UPDATE records the specified live
+        transaction has written to the log.  Does not take the log
+        monitor, so it may be called while holding other locks.
+    */
+    public long getLogBytesWritten(TransactionId tid) {
+        Long bytes = tidToLogBytes.get(tid.getId());
+        return bytes == null ? 0 : bytes;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,12 +405,11 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId(), new byte[0]);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToFirstUpdate.remove(tid.getId());
+                tidToLogBytes.remove(tid.getId());
             }
         }
     }
@@ -171,23 +417,109 @@ public class LogFile {
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
 
+        <p> The record is appended under the log monitor, but the force
+        is not: concurrent committers share a single force through
+        {@link #awaitDurable}.
+
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            appendRecord(COMMIT_RECORD, tid.getId(), new byte[0]);
+            lsn = currentOffset;
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToFirstUpdate.remove(tid.getId());
+            tidToLogBytes.remove(tid.getId());
+        }
+        awaitDurable(lsn);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Return the LSN at which the next record will be appended: every
+        record appended so far ends at or before it.
+    */
+    public synchronized long getEndLsn() {
+        return currentOffset;
+    }
+
+    /** Return the flushed LSN: every record that ends at or before it is
+        on disk.  Does not take the log monitor.
+    */
+    public long getFlushedLsn() {
+        return flushedLsn;
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Set how long the thread that forces the log on behalf of a group
+        of committers waits first, so that more commits can join the
+        group.  Zero (the default) forces at once; commits that arrive
+        during a force still share the next one.
+
+        @param micros the wait window in microseconds
+    */
+    public void setGroupCommitWindow(long micros) {
+        groupCommitWindowMicros = micros;
+    }
+
+    /** Return the number of times the log has been forced to disk. */
+    public synchronized long getForceCount() {
+        return forceCount;
+    }
+
+    /** Block until the log is on disk up to the specified LSN.  If no
+        other thread is forcing the log, the caller waits out the group
+        commit window and then forces it for every record appended so
+        far; otherwise it waits for that force and checks again.
+
+        @param lsn an LSN from {@link #getEndLsn} or {@link Page#getLsn}
+    */
+    public void awaitDurable(long lsn) throws IOException {
+        if (flushedLsn >= lsn) {
+            return;
+        }
+        synchronized (forceLock) {
+            while (flushedLsn < lsn) {
+                if (!forcing) {
+                    forcing = true;
+                    break;
+                }
+                try {
+                    forceLock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (flushedLsn >= lsn) {
+                return;
+            }
+        }
+        // 由这个线程代表整组事务刷盘
+        try {
+            long window = groupCommitWindowMicros;
+            if (window > 0) {
+                try {
+                    Thread.sleep(window / 1000, (int) (window % 1000) * 1000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            force();
+        } finally {
+            synchronized (forceLock) {
+                forcing = false;
+                forceLock.notifyAll();
+            }
+        }
+    }
+
+    /** Write an update record to disk for the specified tid and page
+        (with provided         before and after images.)  If the page
+        is a {@link SlottedPage} and the change is confined to its slots,
+        only the changed slots are logged, in a SLOT_UPDATE record;
+        otherwise both images are logged whole, in an UPDATE record.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,102 +529,345 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        logUpdate(tid.getId(), before, after);
+    }
+
+    private void logUpdate(long tid, Page before, Page after) throws IOException {
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
+        /* the data of an update record conists of
 
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+           before page (see writePage)
+           after page
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           or, for a SLOT_UPDATE record,
+
+           page id (see writePageId)
+           changed slots (see writeSlotChanges)
+        */
+        List<SlotChange> delta = slotDelta(before, after);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (delta == null) {
+            writePage(out, before);
+            writePage(out, after);
+        } else {
+            writePageId(out, pageType(after.getClass()).tag, after.getId());
+            writeSlotChanges(out, delta);
+        }
+        long start = currentOffset;
+        int length = appendRecord(delta == null ? UPDATE_RECORD : SLOT_UPDATE_RECORD, tid, bytes.toByteArray());
+        tidToLogBytes.merge(tid, (long)length, Long::sum);
+        tidToFirstUpdate.putIfAbsent(tid, start);
+        after.setLsn(currentOffset);
+        if (!dirtyPages.containsKey(after.getId())) {
+            dirtyPages.put(after.getId(), new DirtyPage(pageType(after.getClass()).tag, start));
+        }
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+    /** An entry of the dirty page table: the page type tag, and the
+        offset of the first update record since the page was last
+        written to disk. */
+    static class DirtyPage {
+        final int tag;
+        long firstRecord;
+
+        DirtyPage(int tag, long firstRecord) {
+            this.tag = tag;
+            this.firstRecord = firstRecord;
+        }
+    }
+
+    /** Tell the log that the specified page has been written to disk,
+        so recovery need not redo the changes logged for it so far.
+        Called by the buffer pool after every page write.
+    */
+    synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /** Return the pages whose logged changes are not on disk yet. */
+    public synchronized Set<PageId> getDirtyPages() {
+        return new HashSet<PageId>(dirtyPages.keySet());
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /** The contents of one slot before and after a change; null for an
+        empty slot. */
+    static class SlotChange {
+        final int slot;
+        final byte[] before, after;
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        SlotChange(int slot, byte[] before, byte[] after) {
+            this.slot = slot;
+            this.before = before;
+            this.after = after;
+        }
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+    /** Return the slots that differ between two images of a slotted
+        page, or null if the change has to be logged as whole pages:
+        the page is not slotted, something outside the slots changed
+        (such as the sibling pointers of a B+ tree leaf), or the slots
+        would take as much space as the two images.
+    */
+    List<SlotChange> slotDelta(Page before, Page after) throws IOException {
+        if (!(after instanceof SlottedPage) || before.getClass() != after.getClass()) {
+            return null;
+        }
+        SlottedPage b = (SlottedPage)before;
+        SlottedPage a = (SlottedPage)after;
+        List<SlotChange> delta = new ArrayList<SlotChange>();
+        int bytes = 0;
+        for (int i = 0; i < a.getNumSlots(); i++) {
+            byte[] old = b.getSlotData(i);
+            byte[] cur = a.getSlotData(i);
+            if (!Arrays.equals(old, cur)) {
+                delta.add(new SlotChange(i, old, cur));
+                bytes += 3 * INT_SIZE + (old == null ? 0 : old.length) + (cur == null ? 0 : cur.length);
+                if (bytes >= 2 * BufferPool.getPageSize()) {
+                    return null;
+                }
+            }
         }
+        // 把delta作用在before上，必须得到和after完全相同的内容
+        SlottedPage check = (SlottedPage)newPage(before, before.getPageData());
+        for (SlotChange c : delta) {
+            check.setSlotData(c.slot, c.after);
+        }
+        return Arrays.equals(check.getPageData(), after.getPageData()) ? delta : null;
+    }
+
+    static void writeSlotChanges(DataOutput out, List<SlotChange> changes) throws IOException {
+        out.writeInt(changes.size());
+        for (SlotChange c : changes) {
+            out.writeInt(c.slot);
+            writeSlot(out, c.before);
+            writeSlot(out, c.after);
+        }
+    }
+
+    private static void writeSlot(DataOutput out, byte[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    static List<SlotChange> readSlotChanges(DataInput in) throws IOException {
+        int n = in.readInt();
+        List<SlotChange> changes = new ArrayList<SlotChange>(n);
+        while (n-- > 0) {
+            int slot = in.readInt();
+            byte[] before = readSlot(in);
+            changes.add(new SlotChange(slot, before, readSlot(in)));
+        }
+        return changes;
+    }
+
+    private static byte[] readSlot(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    static void writePage(DataOutput out, Page p) throws IOException {
+        writePageId(out, pageType(p.getClass()).tag, p.getId());
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    static void writePageId(DataOutput out, int tag, PageId pid) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.pageNumber());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    static PageId readPageId(DataInput in) throws IOException {
+        return readPageId(pageType(in.readUnsignedByte()), in);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    private static PageId readPageId(PageType type, DataInput in) throws IOException {
+        int tableId = in.readInt();
+        int pageNo = in.readInt();
+        return type.ids.create(tableId, pageNo);
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+    static Page readPage(DataInput in) throws IOException {
+        PageType type = pageType(in.readUnsignedByte());
+        PageId pid = readPageId(type, in);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        return type.pages.create(pid, pageData);
+    }
+
+    /** Construct a page of the same type and id as the specified page
+        from serialized contents. */
+    static Page newPage(Page like, byte[] pageData) throws IOException {
+        return pageType(like.getClass()).pages.create(like.getId(), pageData);
+    }
+
+    static byte[] encodeCheckpoint(Map<Long,Long> active, Map<PageId,DirtyPage> dirty) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(active.size());
+        for (Map.Entry<Long,Long> e : active.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeInt(dirty.size());
+        for (Map.Entry<PageId,DirtyPage> e : dirty.entrySet()) {
+            writePageId(out, e.getValue().tag, e.getKey());
+            out.writeLong(e.getValue().firstRecord);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** A log record read back by {@link #readRecord}.  Its data is only
+        decoded when first asked for, so a pass over the log that looks
+        at record types alone builds no pages.
+    */
+    static class LogRecord {
+        final int type;
+        final long tid;
+        final long offset; // where the record begins
+        final byte[] payload;
+        private boolean decoded;
+        private Page before, after; // UPDATE records only
+        private PageId pid; // update records only
+        private List<SlotChange> slots; // SLOT_UPDATE records only
+        private Map<Long,Long> active; // CHECKPOINT records only: tid -> first record
+        private Map<PageId,DirtyPage> dirty; // CHECKPOINT records only
+
+        LogRecord(int type, long tid, long offset, byte[] payload) {
+            this.type = type;
+            this.tid = tid;
+            this.offset = offset;
+            this.payload = payload;
+        }
+
+        private void decode() throws IOException {
+            if (decoded) {
+                return;
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (type) {
+            case UPDATE_RECORD:
+                before = readPage(in);
+                after = readPage(in);
+                pid = after.getId();
+                break;
+            case SLOT_UPDATE_RECORD:
+                pid = readPageId(in);
+                slots = readSlotChanges(in);
+                break;
+            case CHECKPOINT_RECORD:
+                int numXactions = in.readInt();
+                active = new HashMap<Long,Long>();
+                while (numXactions-- > 0) {
+                    long xid = in.readLong();
+                    active.put(xid, in.readLong());
+                }
+                int numPages = in.readInt();
+                dirty = new LinkedHashMap<PageId,DirtyPage>();
+                while (numPages-- > 0) {
+                    int tag = in.readUnsignedByte();
+                    PageId dirtyPid = readPageId(pageType(tag), in);
+                    dirty.put(dirtyPid, new DirtyPage(tag, in.readLong()));
+                }
+                break;
+            }
+            decoded = true;
+        }
+
+        boolean isUpdate() {
+            return type == UPDATE_RECORD || type == SLOT_UPDATE_RECORD;
+        }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        /** Both kinds of update record begin with the page id, so it is
+            read without decoding the rest of the record. */
+        PageId getPageId() throws IOException {
+            if (pid == null) {
+                pid = readPageId(new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+            return pid;
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        List<SlotChange> getSlots() throws IOException {
+            decode();
+            return slots;
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        Map<Long,Long> getActive() throws IOException {
+            decode();
+            return active;
+        }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        Map<PageId,DirtyPage> getDirty() throws IOException {
+            decode();
+            return dirty;
+        }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+        /** Redo or undo this update.  An UPDATE record returns its
+            after or before image; a SLOT_UPDATE record sets the slots of
+            base, which must be the current image of the page, and
+            returns it.
+        */
+        Page apply(Page base, boolean redo) throws IOException {
+            decode();
+            if (type == UPDATE_RECORD) {
+                return redo ? after : before;
+            }
+            SlottedPage page = (SlottedPage)base;
+            for (SlotChange c : slots) {
+                page.setSlotData(c.slot, redo ? c.after : c.before);
+            }
+            return page;
         }
-        return newPage;
+    }
+
+    /** Read the record starting at the current position of the log,
+        leaving it positioned at the next record.  The record is read
+        with three reads, whatever its length.
 
+        @throws EOFException if the record is incomplete or its checksum
+        does not match, as the last record of the log may be after a
+        crash
+    */
+    LogRecord readRecord(SegmentedLog in) throws IOException {
+        long offset = in.getFilePointer();
+        byte[] head = new byte[RECORD_HEAD_SIZE];
+        in.readFully(head);
+        ByteBuffer h = ByteBuffer.wrap(head);
+        int type = h.getInt();
+        long tid = h.getLong();
+        int length = h.getInt();
+        if (length < 0 || length > in.length() - in.getFilePointer() - RECORD_TAIL_SIZE) {
+            throw new EOFException("log record at offset " + offset + " is incomplete");
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        byte[] tail = new byte[RECORD_TAIL_SIZE];
+        in.readFully(tail);
+        Checksum crc = newChecksum();
+        crc.update(head, 0, head.length);
+        crc.update(payload, 0, length);
+        ByteBuffer t = ByteBuffer.wrap(tail);
+        if (t.getInt() != (int)crc.getValue() || t.getLong() != offset) {
+            throw new EOFException("log record at offset " + offset + " is torn");
+        }
+        if (type < ABORT_RECORD || type > SLOT_UPDATE_RECORD) {
+            throw new EOFException("unknown log record type " + type + " at offset " + offset);
+        }
+        return new LogRecord(type, tid, offset, payload);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +882,96 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(BEGIN_RECORD, tid.getId(), new byte[0]);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /** Checkpoint the log and write a checkpoint record.
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+        <p> The checkpoint is fuzzy.  Committed pages that are not on
+        disk yet are written back first, one at a time (see {@link
+        BufferPool#flushCommittedPages}), so transactions keep running
+        while they are written.  The record then lists the active
+        transactions and the dirty page table as they are, and is
+        written under the log monitor alone.  Recovery redoes from the
+        oldest change in the dirty page table, which may be older than
+        the checkpoint.
+    */
+    public void logCheckpoint() throws IOException {
+        // 不持有日志的锁，逐页写回
+        Database.getBufferPool().flushCommittedPages(getDirtyPages());
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset = currentOffset;
+            //write list of outstanding transactions and dirty pages; no tid
+            appendRecord(CHECKPOINT_RECORD, -1, encodeCheckpoint(tidToFirstLogRecord, dirtyPages));
+            force();
+
+            //once the CP is on disk, make sure the CP location in the
+            // header is updated, and on disk before segments are dropped
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Whole segments before the minimum recovery LSN
+        are archived or deleted (see {@link #setArchiveDirectory}); no
+        record is moved, so this costs a file operation per segment
+        however long the log is.
+    */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        long minLogRecord = getMinRecoveryLsn();
+        if (minLogRecord == NO_CHECKPOINT_ID) {
+            return;  // 没有检查点，什么都不能截掉
+        }
+        int dropped = segments.dropBefore(minLogRecord, archiveDir);
+        Debug.log("TRUNCATING LOG: DROPPED " + dropped + " SEGMENTS BEFORE " + minLogRecord + ", LOG NOW STARTS AT " + segments.getStart());
+    }
+
+    /** Return the oldest LSN that recovery would read if the system
+        crashed now: the smallest of the last checkpoint, the first
+        record of each transaction active at it, and the first change to
+        each page that is still dirty.  Returns -1 if there is no
+        checkpoint, in which case recovery reads the whole log.
+    */
+    public synchronized long getMinRecoveryLsn() throws IOException {
+        if (recoveryUndecided) {
+            return NO_CHECKPOINT_ID;
+        }
         raf.seek(0);
         long cpLoc = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return NO_CHECKPOINT_ID;
+        }
 
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        segments.seek(cpLoc);
+        LogRecord cp = readRecord(segments);
+        segments.seek(currentOffset);
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        for (long firstLogRecord : cp.getActive().values()) {
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        // 检查点之后已经写回的page不再需要重做，只看当前的dirty page table
+        for (DirtyPage d : dirtyPages.values()) {
+            if (d.firstRecord < minLogRecord) {
+                minLogRecord = d.firstRecord;
             }
         }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        return minLogRecord;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -459,6 +980,13 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        <p> The transaction's update records are read forward from its
+        first one, and undone in reverse order against the pages on
+        disk.  The undo is itself logged, as updates by the same
+        transaction, so that recovery can redo the whole history of an
+        aborted transaction and end with its changes removed.  Restored
+        pages are written to disk and dropped from the buffer pool.
+
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
@@ -467,18 +995,82 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                // 撤销完成后才移除，失败时可以重试
+                Long firstUpdate = tidToFirstUpdate.get(tid.getId());
+                if (firstUpdate == null) {
+                    return;  // 没有写过UPDATE记录，磁盘上没有需要撤销的修改
+                }
+                List<LogRecord> updates = new ArrayList<LogRecord>();
+                segments.seek(firstUpdate);
+                while (segments.getFilePointer() < currentOffset) {
+                    LogRecord rec = readRecord(segments);
+                    if (rec.isUpdate() && rec.tid == tid.getId()) {
+                        updates.add(rec);
+                    }
+                }
+                segments.seek(currentOffset);
+
+                HashMap<PageId,Page> images = new HashMap<PageId,Page>();
+                undo(tid.getId(), updates, images);
+                force();
+                writeImages(images);
+                tidToFirstUpdate.remove(tid.getId());
             }
         }
     }
 
+    /** Undo the specified updates of a transaction, latest first, on
+        the images of the pages they changed, and log the undo as
+        compensating updates by the same transaction.  Pages missing from
+        images are read from disk.  The caller must hold the buffer pool
+        and log monitors.
+    */
+    private void undo(long tid, List<LogRecord> updates, HashMap<PageId,Page> images)
+        throws IOException {
+        HashMap<PageId,byte[]> undone = new HashMap<PageId,byte[]>();  // 撤销之前的内容
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            LogRecord rec = updates.get(i);
+            PageId pid = rec.getPageId();
+            Page page = currentImage(images, pid);
+            undone.putIfAbsent(pid, page.getPageData());
+            images.put(pid, rec.apply(page, false));
+        }
+        for (Map.Entry<PageId,byte[]> e : undone.entrySet()) {
+            Page after = images.get(e.getKey());
+            logUpdate(tid, newPage(after, e.getValue()), after);
+        }
+    }
+
+    // page在images中的最新内容，不在其中时从磁盘读
+    private Page currentImage(HashMap<PageId,Page> images, PageId pid) {
+        Page page = images.get(pid);
+        if (page == null) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        return page;
+    }
+
+    // 写回重做/撤销的结果，并从buffer pool中丢弃旧版本
+    private void writeImages(HashMap<PageId,Page> images) throws IOException {
+        for (Page page : images.values()) {
+            PageId pid = page.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            Database.getBufferPool().discardPage(pid);
+            dirtyPages.remove(pid);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,12 +1080,153 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+
+        <p> Recovery reads the log from the last checkpoint, or from the
+        first record of a transaction that was active at the checkpoint,
+        or from the first change to a page in the checkpoint's dirty page
+        table, whichever is earliest.  It runs in three passes:
+
+        <ul>
+        <li> Analysis finds the transactions that committed, and the
+        losers: those with no COMMIT or ABORT record.  It also rebuilds
+        the dirty page table, adding the pages changed after the
+        checkpoint.
+
+        <li> Redo repeats history: every update is reapplied in log
+        order, whichever transaction made it.  An aborted transaction's
+        rollback was logged as compensating updates, so its changes are
+        redone and then removed again.  An update to a page that is not
+        in the dirty page table, or that precedes the page's entry, is
+        already on disk and is skipped.  Every update record sets whole
+        pages or whole slots, so reapplying one to a page that already
+        reflects it is harmless.
+
+        <li> Undo rolls the losers back, latest update first, logging
+        compensating updates as {@link #rollback} does, then appends an
+        ABORT record for each loser.  Only then, once the log is forced,
+        is the final image of each page written to disk.
+        </ul>
+
+        <p> Changes before the start of the log, in segments dropped by
+        {@link #logTruncate}, are on disk and are not redone.
+
+        <p> An incomplete record at the end of the log, left by a crash
+        in the middle of an append, is discarded.  Transactions that
+        never logged a BEGIN record and were active at the checkpoint
+        are only undone as far back as the checkpoint.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                tidToFirstLogRecord.clear();
+                tidToFirstUpdate.clear();
+                tidToLogBytes.clear();
+                dirtyPages.clear();
+                if (raf.length() < HEADER_SIZE) {
+                    writeHeader();
+                    return;
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                int version = raf.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("log format version " + version + " is not supported; expected " + FORMAT_VERSION);
+                }
+                segments.open(raf.readInt());
+
+                // analysis
+                long scanStart = segments.getStart();
+                Set<Long> undoable = new HashSet<Long>(); // 可以从第一条记录开始撤销的事务
+                HashMap<PageId,Long> redoFrom = new HashMap<PageId,Long>(); // dirty page table
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    segments.seek(cpLoc);
+                    LogRecord cp = readRecord(segments);
+                    if (cp.type != CHECKPOINT_RECORD) {
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    scanStart = cpLoc;
+                    for (Map.Entry<Long,Long> e : cp.getActive().entrySet()) {
+                        undoable.add(e.getKey());
+                        scanStart = Math.min(scanStart, e.getValue());
+                    }
+                    for (Map.Entry<PageId,DirtyPage> e : cp.getDirty().entrySet()) {
+                        redoFrom.put(e.getKey(), e.getValue().firstRecord);
+                        scanStart = Math.min(scanStart, e.getValue().firstRecord);
+                    }
+                    // 被截掉的段里的修改都已经写回磁盘
+                    scanStart = Math.max(scanStart, segments.getStart());
+                }
+                Set<Long> finished = new HashSet<Long>();
+                Set<Long> seen = new HashSet<Long>();
+                long end = scanStart;
+                segments.seek(scanStart);
+                while (true) {
+                    LogRecord rec;
+                    try {
+                        rec = readRecord(segments);
+                    } catch (EOFException e) {
+                        break;  // 日志末尾的记录不完整
+                    }
+                    end = segments.getFilePointer();
+                    switch (rec.type) {
+                    case BEGIN_RECORD:
+                        undoable.add(rec.tid);
+                        break;
+                    case UPDATE_RECORD:
+                    case SLOT_UPDATE_RECORD:
+                        if (seen.add(rec.tid) && rec.offset >= cpLoc) {
+                            undoable.add(rec.tid);
+                        }
+                        if (rec.offset >= cpLoc) {
+                            redoFrom.putIfAbsent(rec.getPageId(), rec.offset);
+                        }
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        finished.add(rec.tid);
+                        break;
+                    }
+                }
+                undoable.removeAll(finished);
+
+                // redo
+                HashMap<PageId,Page> images = new HashMap<PageId,Page>();
+                HashMap<Long,List<LogRecord>> loserUpdates = new HashMap<Long,List<LogRecord>>();
+                segments.seek(scanStart);
+                while (segments.getFilePointer() < end) {
+                    LogRecord rec = readRecord(segments);
+                    if (!rec.isUpdate()) {
+                        continue;
+                    }
+                    PageId pid = rec.getPageId();
+                    Long from = redoFrom.get(pid);
+                    if (from != null && rec.offset >= from) {
+                        Page base = rec.type == SLOT_UPDATE_RECORD ? currentImage(images, pid) : null;
+                        images.put(pid, rec.apply(base, true));
+                    }
+                    if (undoable.contains(rec.tid)) {
+                        loserUpdates.computeIfAbsent(rec.tid, k -> new ArrayList<LogRecord>()).add(rec);
+                    }
+                }
+
+                // undo
+                segments.setLength(end);
+                segments.seek(end);
+                currentOffset = end;
+                for (Map.Entry<Long,List<LogRecord>> e : loserUpdates.entrySet()) {
+                    undo(e.getKey(), e.getValue(), images);
+                }
+                for (Long tid : undoable) {
+                    preAppend();
+                    appendRecord(ABORT_RECORD, tid, new byte[0]);
+                }
+                tidToFirstUpdate.clear();
+                tidToLogBytes.clear();
+                force();
+                writeImages(images);
+                Debug.log("RECOVERED: scanned " + (end - scanStart) + " bytes, wrote " + images.size() + " pages");
             }
          }
     }
@@ -501,10 +1234,68 @@ public class LogFile {
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
+        synchronized (this) {
+            long pos = segments.getFilePointer();
+            raf.seek(0);
+            System.out.println("checkpoint at " + raf.readLong() + ", format version " + raf.readInt()
+                               + ", segments of " + raf.readInt() + " bytes from " + segments.getStart());
+            segments.seek(segments.getStart());
+            try {
+                while (true) {
+                    LogRecord rec = readRecord(segments);
+                    String name;
+                    switch (rec.type) {
+                    case ABORT_RECORD: name = "ABORT"; break;
+                    case COMMIT_RECORD: name = "COMMIT"; break;
+                    case UPDATE_RECORD: name = "UPDATE " + rec.getPageId(); break;
+                    case SLOT_UPDATE_RECORD: name = "SLOT_UPDATE " + rec.getPageId() + ", " + rec.getSlots().size() + " slots"; break;
+                    case BEGIN_RECORD: name = "BEGIN"; break;
+                    default: name = "CHECKPOINT " + rec.getActive() + ", dirty " + rec.getDirty().keySet(); break;
+                    }
+                    System.out.println(rec.offset + ": tid " + rec.tid + " " + name);
+                }
+            } catch (EOFException e) {
+                // 到达日志末尾
+            }
+            segments.seek(pos);
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force the log to disk if it is not there yet up to the specified
+        LSN, without waiting for a group commit window.  Write-ahead
+        logging calls this before a page is written, with the page's LSN,
+        so a page whose records are already on disk, such as a committed
+        page written back after its commit forced the log, costs no force.
+    */
+    public void forceTo(long lsn) throws IOException {
+        if (flushedLsn < lsn) {
+            force();
+        }
+    }
+
+    /** Force the log to disk up to every record appended so far.  The
+        end of the log and the segments to force are read under the log
+        monitor, which is then released, so appends go on during the
+        fsync; that runs under the force lock alone.  Callers that hold
+        the log monitor, such as abort and checkpoint, still block
+        appends for the whole force.
+    */
+    public void force() throws IOException {
+        long lsn;
+        List<FileChannel> channels;
+        synchronized (this) {
+            lsn = currentOffset;
+            // flushedLsn之前的记录都已落盘，正在进行的force不算
+            channels = segments.channelsToForce(flushedLsn, lsn);
+            forceCount++;
+        }
+        synchronized (forceLock) {
+            SegmentedLog.force(channels);
+            if (lsn > flushedLsn) {
+                flushedLsn = lsn;
+            }
+            forceLock.notifyAll();
+        }
     }
 
 }
@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.HashSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -81,6 +82,15 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return true if a filter has been added over the table with the given alias */
+    boolean hasFilter(String tableAlias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(tableAlias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -283,12 +293,17 @@ public class LogicalPlan {
      *    query plan should be given.
      *  @throws ParsingException if the logical plan is not valid
      *  @return A DbIterator representing this plan.
+     *  <p>
+     *  A table stored as a {@link BTreeFile} is read with a {@link BTreeScan} instead
+     *  of a {@link SeqScan} when one of its filters is over the key field and
+     *  {@link TableStats#estimateIndexScanCost} says the index is cheaper.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -299,8 +314,18 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
+            LogicalFilterNode indexFilter = chooseIndexFilter(table, ss.getTupleDesc(), baseTableStats.get(baseTableName));
+            if (indexFilter != null) {
+                // 由index扫描直接满足这个filter，不再需要Filter算子
+                IndexPredicate ipred = new IndexPredicate(indexFilter.p, getFilterConstant(indexFilter, ss.getTupleDesc()));
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, ipred));
+                indexFilters.add(indexFilter);
+                if (explain)
+                    System.out.println("Scanning " + table.alias + " through its index on " + indexFilter.fieldQuantifiedName);
+            } else {
+                subplanMap.put(table.alias,ss);
+            }
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -314,19 +339,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            Field f = getFilterConstant(lf, subplan.getTupleDesc());
 
             Predicate p = null;
             try {
@@ -334,7 +347,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -481,6 +495,51 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Convert the constant of a filter into a Field of the type of the filtered field.
+        @param lf the filter
+        @param td the TupleDesc of the plan the filter applies to, with alias-qualified field names
+        @throws ParsingException if the filtered field is not in td
+    */
+    private static Field getFilterConstant(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Type ftyp;
+        try {
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Choose the filter over a table that is cheapest to answer by scanning the table's
+        B+ tree index, if that is cheaper than scanning the whole table.
+        @param table the table being scanned
+        @param td the TupleDesc of a scan of table, with alias-qualified field names
+        @param s the statistics of table, or null if there are none
+        @return the filter to answer with an index scan, or null if the table should be
+          scanned sequentially
+        @throws ParsingException if a filter over table refers to an unknown field
+    */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, TupleDesc td, TableStats s) throws ParsingException {
+        if (s == null)
+            return null;
+        LogicalFilterNode best = null;
+        double bestCost = s.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            Field f = getFilterConstant(lf, td);
+            double cost = s.estimateIndexScanCost(td.fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            if (cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page
+ * whose K-th most recent access is furthest in the past; pages accessed
+ * fewer than K times are treated as infinitely old and go first, oldest
+ * last access first. The history of evicted pages is retained for a while,
+ * so a page that is evicted and read back does not start from scratch.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    private static class History {
+        final long[] times;  // times[0]是最近一次访问，0表示没有访问
+
+        History(int k) {
+            this.times = new long[k];
+        }
+
+        synchronized void access(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+
+        synchronized long last() {
+            return times[0];
+        }
+
+        synchronized long kth() {
+            return times[times.length - 1];
+        }
+    }
+
+    private final int k;
+    private final int maxRetained;
+    private final ConcurrentHashMap<PageId, History> resident = new ConcurrentHashMap<>();
+    private final LinkedHashMap<PageId, History> retained = new LinkedHashMap<>();  // protected by this
+
+    /**
+     * @param k        how many past accesses to remember per page
+     * @param numPages the number of frames in the buffer pool; the history of
+     *                 up to this many evicted pages is retained
+     */
+    public LruKReplacementPolicy(int k, int numPages) {
+        this.k = k;
+        this.maxRetained = numPages;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        History history = retained.remove(pid);
+        if (history == null) {
+            history = new History(k);
+        }
+        history.access(System.nanoTime());
+        resident.put(pid, history);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History history = resident.get(pid);
+        if (history != null) {
+            history.access(System.nanoTime());
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History history = resident.remove(pid);
+        if (history != null) {
+            retained.put(pid, history);
+            if (retained.size() > maxRetained) {
+                Iterator<PageId> it = retained.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, History> e : resident.entrySet()) {
+            long kth = e.getValue().kth();
+            long last = e.getValue().last();
+            if ((kth < victimKth || (kth == victimKth && last < victimLast)) && canEvict.test(e.getKey())) {
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
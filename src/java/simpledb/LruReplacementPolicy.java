@@ -0,0 +1,40 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used replacement. Each resident page carries the time of
+ * its last access, so a hit is a single map update; the victim is found by
+ * scanning for the oldest evictable stamp.
+ */
+public class LruReplacementPolicy implements ReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, Long> lastAccess = new ConcurrentHashMap<>();
+
+    public void pageAdded(PageId pid) {
+        lastAccess.put(pid, System.nanoTime());
+    }
+
+    public void pageAccessed(PageId pid) {
+        // replace不会把已经被移除的page重新加回来
+        lastAccess.replace(pid, System.nanoTime());
+    }
+
+    public void pageRemoved(PageId pid) {
+        lastAccess.remove(pid);
+    }
+
+    public PageId chooseVictim(Predicate<PageId> canEvict) {
+        PageId victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<PageId, Long> entry : lastAccess.entrySet()) {
+            if (entry.getValue() <= oldest && canEvict.test(entry.getKey())) {
+                oldest = entry.getValue();
+                victim = entry.getKey();
+            }
+        }
+        return victim;
+    }
+}
@@ -7,8 +7,9 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
- *     Page(PageId id, byte[] data)
+ * For recovery purposes, page classes MUST be registered with
+ * LogFile.registerPageType, which says how to rebuild a page from its id
+ * and getPageData().
  */
 public interface Page {
 
@@ -56,4 +57,23 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return the page LSN: the log sequence number just past the last log
+     * record that describes this page, or 0 if none has been logged since
+     * the page was read. Write-ahead logging allows the page to be written
+     * to disk only once the log is on disk up to this LSN.
+     * <p>
+     * The page LSN is kept in memory only; it is not part of getPageData().
+     * It therefore only orders the log force before a page write. Recovery
+     * cannot compare it with a record's LSN to skip changes already on
+     * disk; redo relies on every record being idempotent instead.
+     */
+    public long getLsn();
+
+    /**
+     * Set the page LSN. Called by the log when it appends a record that
+     * describes this page.
+     */
+    public void setLsn(long lsn);
 }
@@ -4,10 +4,9 @@ package simpledb;
 public interface PageId {
 
     /** Return a representation of this page id object as a collection of
-        integers (used for logging)
-
-        This class MUST have a constructor that accepts n integer parameters,
-        where n is the number of integers returned in the array from serialize.
+        integers.  The log does not use it: it logs the table id and page
+        number, and rebuilds ids with the factory registered for the page
+        type (see LogFile.registerPageType).
     */
     public int[] serialize();
 
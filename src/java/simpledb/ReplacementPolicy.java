@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs a
+ * free frame. The BufferPool tells the policy when pages enter and leave the
+ * pool and when a resident page is hit; the policy keeps whatever history it
+ * needs to rank the resident pages.
+ * <p>
+ * {@link #pageAccessed} is called on every buffer pool hit without holding
+ * the pool monitor, so implementations must make it cheap and must not
+ * block. The other methods are called with the pool monitor held, except
+ * that {@link #pageAdded} may also be called for pages installed by
+ * insertTuple/deleteTuple.
+ *
+ * @see BufferPool
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies available to {@link Database#resetBufferPool(int, Kind)}. */
+    enum Kind {
+        /** Least recently used. */
+        LRU,
+        /** Second-chance CLOCK sweep over reference bits. */
+        CLOCK,
+        /** 2Q: pages seen once wait in a FIFO before joining an LRU queue. */
+        TWO_Q,
+        /** LRU-2: evict the page whose second most recent access is oldest. */
+        LRU_K;
+
+        /**
+         * Create a fresh policy of this kind for a pool of numPages frames.
+         */
+        public ReplacementPolicy create(int numPages) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockReplacementPolicy();
+                case TWO_Q:
+                    return new TwoQueueReplacementPolicy(numPages);
+                case LRU_K:
+                    return new LruKReplacementPolicy(2, numPages);
+                default:
+                    return new LruReplacementPolicy();
+            }
+        }
+    }
+
+    /** A page has been read into the pool. */
+    void pageAdded(PageId pid);
+
+    /** A resident page has been requested again. */
+    void pageAccessed(PageId pid);
+
+    /** A page has left the pool, either evicted or discarded. */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick the resident page that should be evicted next.
+     *
+     * @param canEvict accepts the pages that may be evicted right now (for
+     *                 example, pages that are not dirty)
+     * @return the page to evict, or null if canEvict accepts no resident page
+     */
+    PageId chooseVictim(Predicate<PageId> canEvict);
+}
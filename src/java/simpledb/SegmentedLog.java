@@ -0,0 +1,309 @@
+package simpledb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * SegmentedLog stores the records of a {@link LogFile} in a directory of
+ * segment files of a fixed size. A log sequence number (LSN) is a position
+ * in the concatenation of every segment written since the log was last
+ * reset: segment n holds LSNs [n * segmentSize, (n + 1) * segmentSize), and
+ * a record may run from one segment into the next.
+ * <p>
+ * LSNs never change once written, so the log is shortened by dropping
+ * whole segments from its start, which costs a delete or a rename per
+ * segment, rather than by rewriting what is left.
+ * <p>
+ * Like a RandomAccessFile, a SegmentedLog has a current position that
+ * reads and writes start from and advance. It is not thread safe: LogFile
+ * serializes access under its monitor. Forcing is split so that only the
+ * choice of segments needs that serialization; the channels it returns
+ * are forced with {@link #force(List)} while the log goes on appending.
+ */
+public class SegmentedLog {
+
+    private final File dir;
+    private int segmentSize;
+
+    private final TreeMap<Long, RandomAccessFile> open = new TreeMap<>();  // 段号 -> 已打开的段文件
+    private final TreeSet<Long> unforced = new TreeSet<>();  // 上次force之后写过的段
+
+    private long start;  // 第一个还在的LSN
+    private long end;    // 最后一个字节之后的LSN
+    private long pos;
+
+    /**
+     * @param dir the directory holding the segments; created if missing
+     */
+    public SegmentedLog(File dir) {
+        this.dir = dir;
+    }
+
+    private static String segmentName(long seg) {
+        return String.format("%010d.seg", seg);
+    }
+
+    private File segmentFile(long seg) {
+        return new File(this.dir, segmentName(seg));
+    }
+
+    // 段文件按段号排好序
+    private TreeMap<Long, File> listSegments() throws IOException {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            return segments;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".seg")) {
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - 4)), f);
+                } catch (NumberFormatException e) {
+                    throw new IOException("unexpected file " + f + " in log directory");
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Open the segments already in the directory.
+     *
+     * @param segmentSize the size the segments were written with
+     * @throws IOException if a segment in the middle of the log is missing
+     */
+    public void open(int segmentSize) throws IOException {
+        close();
+        this.segmentSize = segmentSize;
+        this.dir.mkdirs();
+        TreeMap<Long, File> segments = listSegments();
+        if (segments.isEmpty()) {
+            this.start = this.end = this.pos = 0;
+            return;
+        }
+        long first = segments.firstKey();
+        long last = segments.lastKey();
+        if (last - first + 1 != segments.size()) {
+            throw new IOException("log segments " + first + " to " + last + " are not contiguous");
+        }
+        this.start = first * segmentSize;
+        this.end = last * segmentSize + segments.lastEntry().getValue().length();
+        this.pos = this.start;
+    }
+
+    /**
+     * Delete every segment and start an empty log at LSN 0.
+     *
+     * @param segmentSize the size of the segments to write from now on
+     */
+    public void reset(int segmentSize) throws IOException {
+        close();
+        this.segmentSize = segmentSize;
+        this.dir.mkdirs();
+        for (File f : listSegments().values()) {
+            if (!f.delete()) {
+                throw new IOException("could not delete log segment " + f);
+            }
+        }
+        this.start = this.end = this.pos = 0;
+    }
+
+    public int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /** @return the first LSN still in the log */
+    public long getStart() {
+        return this.start;
+    }
+
+    /** @return the LSN just past the last byte of the log */
+    public long length() {
+        return this.end;
+    }
+
+    public long getFilePointer() {
+        return this.pos;
+    }
+
+    public void seek(long lsn) {
+        this.pos = lsn;
+    }
+
+    private RandomAccessFile segment(long seg) throws IOException {
+        RandomAccessFile f = this.open.get(seg);
+        if (f == null) {
+            f = new RandomAccessFile(segmentFile(seg), "rw");
+            this.open.put(seg, f);
+        }
+        return f;
+    }
+
+    /**
+     * Read b.length bytes from the current position.
+     *
+     * @throws EOFException if the log ends first
+     * @throws IOException if the position is in a segment already dropped
+     */
+    public void readFully(byte[] b) throws IOException {
+        if (this.pos < this.start) {
+            throw new IOException("LSN " + this.pos + " is before the start of the log, " + this.start);
+        }
+        if (this.pos + b.length > this.end) {
+            throw new EOFException();
+        }
+        int done = 0;
+        while (done < b.length) {
+            long seg = this.pos / this.segmentSize;
+            int off = (int) (this.pos % this.segmentSize);
+            int n = Math.min(b.length - done, this.segmentSize - off);
+            RandomAccessFile f = segment(seg);
+            f.seek(off);
+            f.readFully(b, done, n);
+            done += n;
+            this.pos += n;
+        }
+    }
+
+    /**
+     * Write b at the current position, starting new segments as needed.
+     */
+    public void write(byte[] b) throws IOException {
+        int done = 0;
+        while (done < b.length) {
+            long seg = this.pos / this.segmentSize;
+            int off = (int) (this.pos % this.segmentSize);
+            int n = Math.min(b.length - done, this.segmentSize - off);
+            RandomAccessFile f = segment(seg);
+            f.seek(off);
+            f.write(b, done, n);
+            this.unforced.add(seg);
+            done += n;
+            this.pos += n;
+        }
+        this.end = Math.max(this.end, this.pos);
+    }
+
+    /**
+     * Cut the log at the specified LSN, deleting the segments after it.
+     */
+    public void setLength(long lsn) throws IOException {
+        long lastSeg = lsn / this.segmentSize;
+        for (Map.Entry<Long, File> e : listSegments().tailMap(lastSeg, false).entrySet()) {
+            closeSegment(e.getKey());
+            e.getValue().delete();
+        }
+        if (lsn % this.segmentSize != 0 || lsn > this.start) {
+            segment(lastSeg).setLength(lsn % this.segmentSize);
+            this.unforced.add(lastSeg);
+        }
+        this.end = lsn;
+    }
+
+    /**
+     * Choose the segments a force must reach for every byte in [from, to)
+     * to be on disk: the segments holding that range, and any segment
+     * truncated since the last force. A force still in progress does not
+     * count, so the range should start at the last LSN known to be on disk.
+     *
+     * @return the channels of those segments, to pass to {@link #force(List)}
+     */
+    public List<FileChannel> channelsToForce(long from, long to) throws IOException {
+        TreeSet<Long> segs = new TreeSet<>(this.unforced);
+        this.unforced.clear();
+        if (to > from) {
+            for (long seg = Math.max(from, this.start) / this.segmentSize; seg <= (to - 1) / this.segmentSize; seg++) {
+                segs.add(seg);
+            }
+        }
+        List<FileChannel> channels = new ArrayList<>();
+        for (Long seg : segs) {
+            RandomAccessFile f = this.open.get(seg);
+            if (f != null) {
+                channels.add(f.getChannel());
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Force the given segment channels to disk. Needs no lock: a segment
+     * closed meanwhile was dropped or the log reset, and is skipped.
+     */
+    public static void force(List<FileChannel> channels) throws IOException {
+        for (FileChannel ch : channels) {
+            try {
+                ch.force(true);
+            } catch (ClosedChannelException e) {
+                // 段已经被删除或者日志被重置，不需要再落盘
+            }
+        }
+    }
+
+    /**
+     * Drop the segments that lie wholly before the specified LSN; the last
+     * segment is always kept, so the log remembers where it ends. A dropped
+     * segment is moved into archiveDir if it is not null, and deleted
+     * otherwise.
+     *
+     * @return the number of segments dropped
+     */
+    public int dropBefore(long lsn, File archiveDir) throws IOException {
+        if (archiveDir != null) {
+            archiveDir.mkdirs();
+        }
+        TreeMap<Long, File> segments = listSegments();
+        if (!segments.isEmpty()) {
+            segments.remove(segments.lastKey());
+        }
+        int dropped = 0;
+        for (Map.Entry<Long, File> e : segments.headMap(lsn / this.segmentSize, false).entrySet()) {
+            closeSegment(e.getKey());
+            if (archiveDir != null) {
+                Files.move(e.getValue().toPath(), new File(archiveDir, e.getValue().getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } else if (!e.getValue().delete()) {
+                throw new IOException("could not delete log segment " + e.getValue());
+            }
+            this.start = (e.getKey() + 1) * this.segmentSize;
+            dropped++;
+        }
+        return dropped;
+    }
+
+    /** @return the segment files, oldest first */
+    public List<File> getFiles() throws IOException {
+        return new ArrayList<>(listSegments().values());
+    }
+
+    private void closeSegment(long seg) throws IOException {
+        RandomAccessFile f = this.open.remove(seg);
+        if (f != null) {
+            f.close();
+        }
+        this.unforced.remove(seg);
+    }
+
+    /**
+     * Close every open segment file. The log can be opened again.
+     */
+    public void close() throws IOException {
+        for (RandomAccessFile f : this.open.values()) {
+            f.close();
+        }
+        this.open.clear();
+        this.unforced.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package simpledb;
+
+/**
+ * A page made of a header bitmap and fixed-size tuple slots, such as a
+ * HeapPage or a BTreeLeafPage. The log records changes to these pages slot
+ * by slot rather than as whole page images.
+ *
+ * @see LogFile#logWrite
+ */
+public interface SlottedPage extends Page {
+
+    /**
+     * @return the number of tuple slots on this page
+     */
+    public int getNumSlots();
+
+    /**
+     * @return the serialized tuple in the specified slot, or null if the
+     *         slot is empty
+     * @throws RuntimeException if the tuple cannot be serialized; a partial
+     *         image is never returned, since it would be logged
+     */
+    public byte[] getSlotData(int slot);
+
+    /**
+     * Fill the specified slot with a serialized tuple, or clear it if data
+     * is null. Used to redo and undo logged changes; the before image and
+     * dirty flag are left alone.
+     */
+    public void setSlotData(int slot, byte[] data);
+}
@@ -184,7 +184,63 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ((HeapFile) this.dbFile).numPages() * this.ioCostPerPage;
+        return numPages() * this.ioCostPerPage;
+    }
+
+    /**
+     * @return true if the table is a B+ tree keyed on field, so that predicates
+     *         over field can be answered by scanning the index
+     */
+    public boolean hasIndex(int field) {
+        return this.dbFile instanceof BTreeFile && ((BTreeFile) this.dbFile).keyField() == field;
+    }
+
+    /**
+     * Estimates the cost of answering the predicate <tt>field op constant</tt>
+     * with a BTreeScan: one descent from the root pointer page to a leaf, then
+     * the leaf pages holding the tuples that satisfy the predicate.
+     * 
+     * @param field
+     *            The field over which the predicate ranges
+     * @param op
+     *            The logical operation in the predicate
+     * @param constant
+     *            The value against which the field is compared
+     * @return The estimated cost of the index scan, or Double.MAX_VALUE if the
+     *         table has no index on field or the index cannot answer op
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!hasIndex(field) || op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return Double.MAX_VALUE;
+        }
+        int pages = numPages();
+        double height = estimateIndexHeight(pages, this.dbFile.getTupleDesc().getFieldType(field));
+        double leaves = Math.max(1, Math.ceil(estimateSelectivity(field, op, constant) * pages));
+        // 根指针page + 下降路径上的page + 命中的leaf page
+        return (1 + height + leaves) * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the number of internal levels a search passes through in a B+
+     * tree of the given size, assuming full internal pages.
+     * 
+     * @param pages
+     *            The number of pages in the B+ tree file
+     * @param keyType
+     *            The type of the key field
+     * @return The estimated height of the tree above the leaf pages
+     */
+    static double estimateIndexHeight(int pages, Type keyType) {
+        // 每个internal page的child个数决定了树的高度
+        int fanout = BufferPool.getPageSize() / (keyType.getLen() + BTreePage.INDEX_SIZE);
+        return Math.max(1, Math.ceil(Math.log(Math.max(pages, 2)) / Math.log(fanout)));
+    }
+
+    private int numPages() {
+        if (this.dbFile instanceof BTreeFile) {
+            return ((BTreeFile) this.dbFile).numPages();
+        }
+        return ((HeapFile) this.dbFile).numPages();
     }
 
     /**
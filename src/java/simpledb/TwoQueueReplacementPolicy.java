@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page read for the first time goes
+ * into a FIFO queue, A1in. A page that is requested again, either while it
+ * is still in A1in or after being pushed out of it into the ghost queue
+ * A1out, is considered hot and moves to Am, which is managed as LRU.
+ * A large sequential scan reads each page once, so it only cycles through
+ * A1in and leaves the pages in Am alone.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        volatile boolean hot;  // true if in Am, false if in A1in
+        final long seq;  // order of arrival, for the A1in FIFO
+        volatile long lastAccess;
+
+        Entry(boolean hot, long seq) {
+            this.hot = hot;
+            this.seq = seq;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final int maxIn;
+    private final int maxOut;
+    private final AtomicLong nextSeq = new AtomicLong(0);
+    private final ConcurrentHashMap<PageId, Entry> entries = new ConcurrentHashMap<>();
+    private final LinkedHashSet<PageId> ghosts = new LinkedHashSet<>();  // A1out, protected by this
+
+    /**
+     * @param numPages the number of frames in the buffer pool; A1in is
+     *                 allowed a quarter of them and A1out remembers half as
+     *                 many evicted pages
+     */
+    public TwoQueueReplacementPolicy(int numPages) {
+        this.maxIn = Math.max(1, numPages / 4);
+        this.maxOut = Math.max(1, numPages / 2);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        boolean hot = ghosts.remove(pid);
+        entries.put(pid, new Entry(hot, nextSeq.getAndIncrement()));
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry entry = entries.get(pid);
+        if (entry != null) {
+            entry.hot = true;  // 再次访问的page从A1in移到Am
+            entry.lastAccess = System.nanoTime();
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        entries.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        int inCount = 0;
+        PageId oldestIn = null;
+        long oldestSeq = Long.MAX_VALUE;
+        PageId lruHot = null;
+        long lruStamp = Long.MAX_VALUE;
+        for (Map.Entry<PageId, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (!entry.hot) {
+                inCount++;
+                if (entry.seq < oldestSeq && canEvict.test(e.getKey())) {
+                    oldestSeq = entry.seq;
+                    oldestIn = e.getKey();
+                }
+            } else if (entry.lastAccess <= lruStamp && canEvict.test(e.getKey())) {
+                lruStamp = entry.lastAccess;
+                lruHot = e.getKey();
+            }
+        }
+        if (oldestIn != null && (inCount > maxIn || lruHot == null)) {
+            // 从A1in淘汰的page记录到A1out中
+            ghosts.add(oldestIn);
+            if (ghosts.size() > maxOut) {
+                Iterator<PageId> it = ghosts.iterator();
+                it.next();
+                it.remove();
+            }
+            return oldestIn;
+        }
+        return lruHot;
+    }
+}
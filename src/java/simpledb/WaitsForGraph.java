@@ -0,0 +1,242 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * WaitsForGraph records which transactions each blocked lock request is
+ * waiting for, and finds cycles in the resulting graph. It is maintained by
+ * {@link BufferPool.LockManager}: a waiting request publishes its blockers
+ * every time they change, and the thread that adds the edge closing a cycle
+ * picks a victim according to the configured {@link VictimPolicy}.
+ * <p>
+ * All state is protected by this object's monitor. Callers may hold a lock
+ * queue monitor when calling in, and the graph never calls back out while
+ * holding its monitor, so the lock order is always queue, then graph. The
+ * lock counts and log sizes that a victim policy compares are read before
+ * the monitor is taken; see {@link #findVictim}.
+ *
+ * @Threadsafe
+ */
+public class WaitsForGraph {
+
+    /** How to choose which transaction in a deadlock cycle is aborted. */
+    public enum VictimPolicy {
+        /** Abort the transaction that started last. */
+        YOUNGEST,
+        /** Abort the transaction holding the fewest page locks. */
+        FEWEST_LOCKS,
+        /** Abort the transaction that has written the least log. */
+        LEAST_LOG_WRITTEN
+    }
+
+    /** A blocked request: the queue it waits in and who it waits for. */
+    private static class Waiter {
+        final TransactionId tid;
+        final Object queue;
+        Set<TransactionId> blockers = Collections.emptySet();
+
+        Waiter(TransactionId tid, Object queue) {
+            this.tid = tid;
+            this.queue = queue;
+        }
+    }
+
+    private final Map<Object, Waiter> waiters = new HashMap<>();
+    private final Map<TransactionId, List<Waiter>> waitersByTid = new HashMap<>();
+    private final Set<TransactionId> victims = new HashSet<>();
+    private final ToIntFunction<TransactionId> lockCount;
+    private VictimPolicy policy = VictimPolicy.YOUNGEST;
+
+    private final AtomicLong deadlocksDetected = new AtomicLong(0);
+    private final AtomicLong lockTimeouts = new AtomicLong(0);
+
+    /**
+     * @param lockCount returns the number of pages a transaction has locked;
+     *                  used by {@link VictimPolicy#FEWEST_LOCKS}
+     */
+    public WaitsForGraph(ToIntFunction<TransactionId> lockCount) {
+        this.lockCount = lockCount;
+    }
+
+    public synchronized void setVictimPolicy(VictimPolicy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized VictimPolicy getVictimPolicy() {
+        return policy;
+    }
+
+    /**
+     * Publish the set of transactions that the request identified by key is
+     * currently waiting for.
+     *
+     * @param key      identifies the waiting request
+     * @param tid      the transaction that made the request
+     * @param queue    the monitor the request waits on; notified if its
+     *                 transaction is chosen as a deadlock victim
+     * @param blockers the transactions the request waits for
+     * @return true if the blockers differ from those last published, in
+     *         which case the caller should run {@link #findVictim}
+     */
+    public synchronized boolean setBlockers(Object key, TransactionId tid, Object queue,
+                                            Set<TransactionId> blockers) {
+        Waiter w = waiters.get(key);
+        if (w == null) {
+            w = new Waiter(tid, queue);
+            waiters.put(key, w);
+            waitersByTid.computeIfAbsent(tid, k -> new ArrayList<>()).add(w);
+        } else if (w.blockers.equals(blockers)) {
+            return false;
+        }
+        w.blockers = blockers;
+        return !blockers.isEmpty();
+    }
+
+    /** Forget the request identified by key; it was granted or abandoned. */
+    public synchronized void removeWaiter(Object key) {
+        Waiter w = waiters.remove(key);
+        if (w != null) {
+            List<Waiter> list = waitersByTid.get(w.tid);
+            list.remove(w);
+            if (list.isEmpty()) {
+                waitersByTid.remove(w.tid);
+            }
+        }
+    }
+
+    /** Drop the victim mark of a transaction that has completed. */
+    public synchronized void transactionComplete(TransactionId tid) {
+        victims.remove(tid);
+    }
+
+    /** @return true if tid was chosen to break a deadlock and must abort */
+    public synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+
+    /** Count a lock request that gave up because its wait timed out. */
+    public void recordTimeout() {
+        lockTimeouts.incrementAndGet();
+    }
+
+    /** @return the number of deadlock cycles found so far */
+    public long getDeadlocksDetected() {
+        return deadlocksDetected.get();
+    }
+
+    /** @return the number of lock requests aborted by the wait timeout */
+    public long getLockTimeouts() {
+        return lockTimeouts.get();
+    }
+
+    /**
+     * Look for a cycle through tid. If one exists, a victim is chosen and
+     * marked; the caller is responsible for waking the victim by notifying
+     * the returned monitors, which must not be done while holding the
+     * monitor of another lock queue.
+     * <p>
+     * The cycle is found under the graph monitor, the policy's cost of each
+     * member is read with the monitor released, and the victim is then
+     * chosen under the monitor again if the cycle is still there. The caller
+     * must not hold any lock queue monitor.
+     *
+     * @return the queue monitors the victim's requests wait on, or an empty
+     *         list if there is no cycle through tid
+     */
+    public List<Object> findVictim(TransactionId tid) {
+        while (true) {
+            List<TransactionId> cycle;
+            VictimPolicy p;
+            synchronized (this) {
+                cycle = findCycle(tid);
+                if (cycle == null) {
+                    return Collections.emptyList();
+                }
+                p = policy;
+            }
+            // 在graph的monitor之外读取锁数量和日志大小
+            Map<TransactionId, Long> costs = costsOf(cycle, p);
+            synchronized (this) {
+                if (!cycle.equals(findCycle(tid)) || p != policy) {
+                    continue;  // 读取期间图发生了变化，重新检测
+                }
+                deadlocksDetected.incrementAndGet();
+                TransactionId victim = chooseVictim(cycle, costs);
+                victims.add(victim);
+                Debug.log(1, "WaitsForGraph: deadlock among %d transactions, aborting %d", cycle.size(), victim.getId());
+                List<Object> queues = new ArrayList<>();
+                for (Waiter w : waitersByTid.get(victim)) {
+                    queues.add(w.queue);
+                }
+                return queues;
+            }
+        }
+    }
+
+    // 按policy计算环中每个事务的代价，代价最小的成为victim
+    private Map<TransactionId, Long> costsOf(List<TransactionId> cycle, VictimPolicy p) {
+        Map<TransactionId, Long> costs = new HashMap<>();
+        for (TransactionId t : cycle) {
+            switch (p) {
+                case FEWEST_LOCKS:
+                    costs.put(t, (long) lockCount.applyAsInt(t));
+                    break;
+                case LEAST_LOG_WRITTEN:
+                    costs.put(t, Database.getLogFile().getLogBytesWritten(t));
+                    break;
+                default:
+                    costs.put(t, 0L);
+                    break;
+            }
+        }
+        return costs;
+    }
+
+    // 从tid出发做DFS，找到回到tid的路径
+    private List<TransactionId> findCycle(TransactionId tid) {
+        Deque<TransactionId> path = new ArrayDeque<>();
+        Set<TransactionId> visited = new HashSet<>();
+        path.push(tid);
+        return dfs(tid, tid, path, visited) ? new ArrayList<>(path) : null;
+    }
+
+    private boolean dfs(TransactionId start, TransactionId cur, Deque<TransactionId> path,
+                        Set<TransactionId> visited) {
+        List<Waiter> list = waitersByTid.get(cur);
+        if (list == null) {
+            return false;  // cur没有在等待，不可能构成环
+        }
+        for (Waiter w : list) {
+            for (TransactionId next : w.blockers) {
+                if (next.equals(start)) {
+                    return true;
+                }
+                if (visited.add(next)) {
+                    path.push(next);
+                    if (dfs(start, next, path, visited)) {
+                        return true;
+                    }
+                    path.pop();
+                }
+            }
+        }
+        return false;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle, Map<TransactionId, Long> costs) {
+        TransactionId victim = cycle.get(0);
+        for (TransactionId t : cycle) {
+            if (victim.equals(t)) {
+                continue;
+            }
+            long cmp = Long.compare(costs.get(t), costs.get(victim));
+            // 相同的情况下选择最年轻的事务
+            if (cmp < 0 || (cmp == 0 && t.getId() > victim.getId())) {
+                victim = t;
+            }
+        }
+        return victim;
+    }
+}
@@ -172,6 +172,40 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().pageNumber() == 2 || otherPage.getId().pageNumber() == 2);
 	}
 
+	/**
+	 * Insert only keeps its lock on the leaf page: the locks on the root pointer
+	 * and internal pages are released during the descent, so another transaction
+	 * can split a leaf under the same parent.
+	 */
+	@Test
+	public void testDescentReleasesInternalLocks() throws Exception {
+		// three leaf pages under an internal root page
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 1100, null, null, 0);
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		bp.transactionComplete(tid);
+
+		bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(2000, 2));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+
+		TransactionId other = new TransactionId();
+		try {
+			// fill the left-most leaf until it splits, which locks the root for writing
+			int pages = bf.numPages();
+			for (int i = 0; bf.numPages() == pages && i < BTreeUtility.getNumTuplesPerPage(2); i++) {
+				bp.insertTuple(other, bf.getId(), BTreeUtility.getBTreeTuple(0, 2));
+			}
+			assertEquals(pages + 1, bf.numPages());
+			assertTrue(bp.holdsLock(other, rootId));
+		} finally {
+			bp.transactionComplete(other);
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
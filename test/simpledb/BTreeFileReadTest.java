@@ -201,6 +201,67 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for BTreeFile.rangeIterator() and BTreeFile.descendingIterator()
+	 */
+	@Test public void rangeIterator() throws Exception {
+		// keys 1 to 1100 across three leaf pages
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 1100, null, null, 0);
+
+		assertKeys(bf.rangeIterator(tid, new IntField(400), true, new IntField(700), true), 400, 700, 1);
+		assertKeys(bf.rangeIterator(tid, new IntField(400), false, new IntField(700), false), 401, 699, 1);
+		assertKeys(bf.rangeIterator(tid, null, true, new IntField(5), true), 1, 5, 1);
+		assertKeys(bf.rangeIterator(tid, new IntField(1090), true, null, true), 1090, 1100, 1);
+		assertKeys(bf.descendingIterator(tid, null, true, null, true), 1100, 1, -1);
+		assertKeys(bf.descendingIterator(tid, new IntField(400), false, new IntField(700), true), 700, 401, -1);
+		assertKeys(bf.descendingIterator(tid, new IntField(400), true, new IntField(700), false), 699, 400, -1);
+
+		DbFileIterator it = bf.rangeIterator(tid, new IntField(2000), true, null, true);
+		it.open();
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test for BTreeFile.rangeIterator() and BTreeFile.descendingIterator()
+	 * over duplicate keys spanning several leaf pages
+	 */
+	@Test public void rangeIteratorDuplicates() throws Exception {
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 520, null, null, 0);
+		int dups = BTreeUtility.getNumTuplesPerPage(2) * 2;
+		for (int i = 0; i < dups; i++) {
+			bf.insertTuple(tid, BTreeUtility.getBTreeTuple(300, 2));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		for (boolean descending : new boolean[] {false, true}) {
+			DbFileIterator it = descending
+					? bf.descendingIterator(tid, new IntField(300), true, new IntField(300), true)
+					: bf.rangeIterator(tid, new IntField(300), true, new IntField(300), true);
+			it.open();
+			int count = 0;
+			while (it.hasNext()) {
+				assertEquals(new IntField(300), it.next().getField(0));
+				count++;
+			}
+			assertEquals(dups + 1, count);
+			it.close();
+		}
+	}
+
+	private void assertKeys(DbFileIterator it, int first, int last, int step) throws Exception {
+		it.open();
+		for (int key = first; key != last + step; key += step) {
+			assertTrue(it.hasNext());
+			assertEquals(new IntField(key), it.next().getField(0));
+		}
+		assertFalse(it.hasNext());
+		it.rewind();
+		assertEquals(new IntField(first), it.next().getField(0));
+		it.close();
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -313,6 +313,41 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	// the child a linear scan of the entries descends into for key f
+	private static BTreePageId linearFindChild(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = it.next();
+		while (!e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f) && it.hasNext()) {
+			e = it.next();
+		}
+		return e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f) ? e.getLeftChild() : e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChildId(), on a page with empty slots
+	 * between its entries
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3) {
+			page.deleteKeyAndRightChild(entries.get(i));
+		}
+
+		assertEquals(new BTreePageId(-1, 1, BTreePageId.LEAF), page.findChildId(null));
+		for (int[] entry : EXAMPLE_VALUES) {
+			for (int delta = -1; delta <= 1; delta++) {
+				Field f = new IntField(entry[1] + delta);
+				assertEquals(linearFindChild(page, f), page.findChildId(f));
+			}
+		}
+		// the last entry was deleted with its right child
+		assertEquals(new BTreePageId(-1, 20, BTreePageId.LEAF), page.findChildId(new IntField(70000)));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -336,6 +336,71 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Op, Field), on a page with empty slots
+	 * between its tuples
+	 */
+	@Test public void searchIterator() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		Iterator<Tuple> it = page.iterator();
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 1; i < tuples.size(); i += 3) {
+			page.deleteTuple(tuples.get(i));
+		}
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		it = page.iterator();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+
+		for (int[] tuple : EXAMPLE_VALUES) {
+			for (int v = tuple[0] - 1; v <= tuple[0] + 1; v++) {
+				Field f = new IntField(v);
+				for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.GREATER_THAN}) {
+					Integer expected = null;
+					for (int k : keys) {
+						if (new IntField(k).compare(op, f)) {
+							expected = k;
+							break;
+						}
+					}
+					Iterator<Tuple> search = page.iterator(op, f);
+					if (expected == null) {
+						assertFalse(search.hasNext());
+					} else {
+						assertEquals(new IntField(expected), search.next().getField(0));
+					}
+				}
+			}
+		}
+		assertEquals(keys.get(0).intValue(),
+				((IntField) page.iterator(Predicate.Op.LESS_THAN, new IntField(0)).next().getField(0)).getValue());
+	}
+
+	/**
+	 * Unit test for BTreeLeafPage.getSlotData() and setSlotData()
+	 */
+	@Test public void slotData() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		int empty = page.getNumSlots() - 1;
+		assertFalse(page.isSlotUsed(empty));
+		assertTrue(page.getSlotData(empty) == null);
+
+		Tuple first = page.iterator().next();
+		int slot = first.getRecordId().tupleno();
+		byte[] data = page.getSlotData(slot);
+		page.setSlotData(empty, data);
+		assertTrue(page.isSlotUsed(empty));
+		assertTrue(Arrays.equals(data, page.getSlotData(empty)));
+		page.setSlotData(slot, null);
+		assertFalse(page.isSlotUsed(slot));
+
+		BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData(), 0);
+		assertTrue(Arrays.equals(data, copy.getSlotData(empty)));
+		assertTrue(copy.getSlotData(slot) == null);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
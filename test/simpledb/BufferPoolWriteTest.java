@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
 
 import org.junit.After;
 import org.junit.Before;
@@ -133,6 +134,355 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Delete one tuple from each page of a 10-page heap file through a 5-page
+     * buffer pool, so that dirty pages have to be evicted.
+     */
+    private HeapFile dirtyTenPages(TransactionId tid, boolean steal) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*10, null, null);
+        BufferPool bp = Database.resetBufferPool(5);
+        bp.setStealPolicy(steal);
+        for (int i = 0; i < 10; ++i) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+        return hf;
+    }
+
+    private int countTuples(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = hf.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        return count;
+    }
+
+    /**
+     * Without STEAL, a transaction cannot dirty more pages than the pool holds.
+     */
+    @Test(expected=DbException.class) public void noStealFailsWhenAllDirty() throws Exception {
+        dirtyTenPages(tid, false);
+    }
+
+    /**
+     * Under STEAL, dirty pages are written back early and the committed
+     * changes are all on disk.
+     */
+    @Test public void stealCommit() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        HeapFile hf = dirtyTenPages(t.getId(), true);
+        t.commit();
+        assertEquals(504*10 - 10, countTuples(hf));
+    }
+
+    /**
+     * Under STEAL, aborting undoes the changes that were written back early.
+     */
+    @Test public void stealAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        HeapFile hf = dirtyTenPages(t.getId(), true);
+        t.abort();
+        assertEquals(504*10, countTuples(hf));
+
+        // the same, aborting through the buffer pool directly
+        TransactionId other = new TransactionId();
+        hf = dirtyTenPages(other, true);
+        Database.getBufferPool().transactionComplete(other, false);
+        assertEquals(504*10, countTuples(hf));
+    }
+
+    /**
+     * Under STEAL, an abort whose undo fails keeps the transaction's locks,
+     * and a retried abort undoes the pages written back early.
+     */
+    @Test public void stealAbortUndoFails() throws Exception {
+        HeapFile created = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        final boolean[] failWrites = new boolean[1];
+        HeapFile hf = new HeapFile(created.getFile(), created.getTupleDesc()) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                if (failWrites[0]) {
+                    throw new IOException("disk full");
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(5);
+        bp.setStealPolicy(true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId t = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(t, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(t, p.iterator().next());
+        bp.flushAllPages();
+        assertEquals(1, emptySlotsOnDisk(hf, 0));
+
+        failWrites[0] = true;
+        try {
+            bp.transactionComplete(t, false);
+            fail("expected the abort to fail");
+        } catch (RuntimeException e) {
+            // 撤销失败
+        }
+        assertTrue(bp.holdsLock(t, pid));
+        assertEquals(1, emptySlotsOnDisk(hf, 0));
+
+        failWrites[0] = false;
+        bp.transactionComplete(t, false);
+        assertFalse(bp.holdsLock(t, pid));
+        assertEquals(0, emptySlotsOnDisk(hf, 0));
+    }
+
+    private int emptySlotsOnDisk(HeapFile hf, int pageNo) {
+        return ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo))).getNumEmptySlots();
+    }
+
+    /**
+     * Under NO FORCE, commit leaves the pages in the pool and only the log
+     * on disk; aborting a later change restores the committed version, and
+     * a checkpoint flush writes it back.
+     */
+    @Test public void noForceCommit() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setForcePolicy(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 3; ++i) {
+            HeapPage p = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(t.getId(), p.iterator().next());
+        }
+        t.commit();
+        assertEquals(3, bp.getUnflushedPageCount());
+        assertEquals(0, emptySlotsOnDisk(hf, 0));
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Transaction t2 = new Transaction();
+        t2.start();
+        HeapPage p = (HeapPage) bp.getPage(t2.getId(), pid, Permissions.READ_WRITE);
+        assertEquals(1, p.getNumEmptySlots());
+        bp.deleteTuple(t2.getId(), p.iterator().next());
+        t2.abort();
+
+        TransactionId reader = new TransactionId();
+        assertEquals(1, ((HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY)).getNumEmptySlots());
+        bp.transactionComplete(reader);
+        assertEquals(0, emptySlotsOnDisk(hf, 0));
+
+        bp.flushAllPages();
+        assertEquals(0, bp.getUnflushedPageCount());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(1, emptySlotsOnDisk(hf, i));
+        }
+    }
+
+    /**
+     * Under NO FORCE, committed pages are written back when evicted.
+     */
+    @Test public void noForceEviction() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*10, null, null);
+        BufferPool bp = Database.resetBufferPool(5);
+        bp.setForcePolicy(false);
+        for (int i = 0; i < 10; ++i) {
+            Transaction t = new Transaction();
+            t.start();
+            HeapPage p = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(t.getId(), p.iterator().next());
+            t.commit();
+        }
+        int unflushed = bp.getUnflushedPageCount();
+        assertTrue(unflushed <= 5);
+        int written = 0;
+        for (int i = 0; i < 10; ++i) {
+            written += emptySlotsOnDisk(hf, i);
+        }
+        assertEquals(10 - unflushed, written);
+        assertEquals(504*10 - 10 + unflushed, countTuples(hf));
+    }
+
+    /**
+     * Under FORCE, commit logs every dirty page before writing any, so the
+     * pages share one force of the log, and the COMMIT record takes one
+     * more.
+     */
+    @Test public void forceCommitForcesLogOnce() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        LogFile log = Database.getLogFile();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 3; ++i) {
+            HeapPage p = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(t.getId(), p.iterator().next());
+        }
+        long forcesBefore = log.getForceCount();
+        t.commit();
+        assertEquals(2, log.getForceCount() - forcesBefore);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(1, emptySlotsOnDisk(hf, i));
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(p.getLsn() > 0);
+            assertTrue(p.getLsn() <= log.getFlushedLsn());
+        }
+    }
+
+    // commit a transaction that deletes one tuple from each of the given pages
+    private void commitDeletes(BufferPool bp, HeapFile hf, int... pages) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i : pages) {
+            HeapPage p = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(t.getId(), p.iterator().next());
+        }
+        t.commit();
+    }
+
+    /**
+     * writeBehind() writes committed pages back, coalescing adjacent pages
+     * into one write, and skips pages write-locked by a transaction.
+     */
+    @Test public void writeBehind() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*5, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setForcePolicy(false);
+        commitDeletes(bp, hf, 0, 1, 2, 4);
+        assertEquals(4, bp.getUnflushedPageCount());
+
+        HeapPageId locked = new HeapPageId(hf.getId(), 1);
+        bp.getPage(tid, locked, Permissions.READ_WRITE);
+        assertEquals(3, bp.writeBehind());
+        assertEquals(3, bp.getWriteBehindWriteCount());
+        assertEquals(1, bp.getUnflushedPageCount());
+        assertEquals(0, emptySlotsOnDisk(hf, 1));
+        bp.transactionComplete(tid);
+
+        commitDeletes(bp, hf, 0, 2);
+        assertEquals(3, bp.writeBehind());
+        assertEquals(6, bp.getWriteBehindPageCount());
+        assertEquals(4, bp.getWriteBehindWriteCount());
+        assertEquals(0, bp.getUnflushedPageCount());
+        assertEquals(2, emptySlotsOnDisk(hf, 0));
+        assertEquals(1, emptySlotsOnDisk(hf, 1));
+        assertEquals(2, emptySlotsOnDisk(hf, 2));
+        assertEquals(0, emptySlotsOnDisk(hf, 3));
+        assertEquals(1, emptySlotsOnDisk(hf, 4));
+    }
+
+    /**
+     * The background writer trickles committed pages out to disk.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setForcePolicy(false);
+        bp.startBackgroundWriter(10);
+        try {
+            commitDeletes(bp, hf, 0, 1, 2);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bp.getUnflushedPageCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            bp.stopBackgroundWriter();
+        }
+        assertEquals(0, bp.getUnflushedPageCount());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(1, emptySlotsOnDisk(hf, i));
+        }
+    }
+
+    /**
+     * Transactions committing together share forces of the log.
+     */
+    @Test public void groupCommit() throws Exception {
+        final int threads = 8;
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(20000);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final Exception[] error = new Exception[1];
+        Thread[] committers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            committers[i] = new Thread(() -> {
+                try {
+                    Transaction t = new Transaction();
+                    t.start();
+                    barrier.await();
+                    t.commit();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            });
+        }
+        long forcesBefore = log.getForceCount();
+        for (Thread c : committers) {
+            c.start();
+        }
+        for (Thread c : committers) {
+            c.join();
+        }
+        log.setGroupCommitWindow(0);
+        assertNull(error[0]);
+        assertTrue(log.getForceCount() - forcesBefore < threads);
+    }
+
+    /**
+     * With no group commit window, a transaction appends its COMMIT record
+     * while another thread is forcing the log, and is durable once the
+     * force it waits for is done.
+     */
+    @Test public void commitDuringForce() throws Exception {
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(0);
+        final Transaction t = new Transaction();
+        t.start();
+        final Exception[] error = new Exception[1];
+        Thread forcer = new Thread(() -> {
+            try {
+                log.force();
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        Thread committer = new Thread(() -> {
+            try {
+                t.commit();
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        boolean appended;
+        // 持有forceLock，让forcer停在fsync之前，模拟一次很慢的force
+        synchronized (log.forceLock) {
+            forcer.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (forcer.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            long end = log.currentOffset;
+            committer.start();
+            while (log.currentOffset == end && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            appended = log.currentOffset > end;
+        }
+        forcer.join();
+        committer.join();
+        assertNull(error[0]);
+        assertTrue(appended);
+        assertEquals(log.getEndLsn(), log.getFlushedLsn());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    private File file;
+    private DbFileChannel channel;
+
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    /**
+     * Unit test for DbFileChannel.write() and read() at arbitrary offsets
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        channel.write(new byte[]{1, 2, 3, 4}, 4);
+        assertEquals(8, file.length());
+
+        byte[] buf = new byte[4];
+        assertEquals(4, channel.read(buf, 4));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buf);
+        assertEquals(4, channel.read(buf, 0));
+        assertArrayEquals(new byte[]{0, 0, 0, 0}, buf);
+    }
+
+    /**
+     * Unit test for DbFileChannel.read() near the end of the file
+     */
+    @Test public void readPastEnd() throws Exception {
+        channel.write(new byte[]{1, 2, 3, 4}, 0);
+        byte[] buf = new byte[4];
+        assertEquals(2, channel.read(buf, 2));
+        assertEquals(-1, channel.read(buf, 4));
+    }
+
+    /**
+     * Unit test for DbFileChannel.append(), and reopening after close()
+     */
+    @Test public void appendAndReopen() throws Exception {
+        assertEquals(0, channel.append(new byte[]{1, 2}));
+        assertEquals(2, channel.append(new byte[]{3, 4}));
+        channel.close();
+
+        byte[] buf = new byte[4];
+        assertEquals(4, channel.read(buf, 0));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buf);
+    }
+
+    /**
+     * Unit test for DbFileChannel.read() by an interrupted thread: the
+     * channel closed by the interrupt is reopened and the read succeeds,
+     * and the thread is still interrupted afterwards
+     */
+    @Test public void readWhileInterrupted() throws Exception {
+        channel.write(new byte[]{1, 2, 3, 4}, 0);
+        byte[] buf = new byte[4];
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(4, channel.read(buf, 0));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buf);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -7,6 +7,8 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +213,73 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * The waits-for graph should break a write-write deadlock well before the
+   * lock wait timeout, aborting the younger transaction by default.
+   */
+  @Test public void testDeadlockDetectedBeforeTimeout() throws Exception {
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertEquals(1, bp.getDeadlocksDetected());
+    assertEquals(0, bp.getLockTimeouts());
+    assertNotNull(lg2Write0.getError());
+    assertTrue(lg1Write1.acquired());
+    lg1Write0.stop(); lg2Write1.stop(); lg1Write1.stop(); lg2Write0.stop();
+  }
+
+  /**
+   * With the FEWEST_LOCKS policy the older transaction is aborted when it
+   * holds fewer page locks than the younger one.
+   */
+  @Test public void testFewestLocksVictim() throws Exception {
+    bp.setDeadlockVictimPolicy(WaitsForGraph.VictimPolicy.FEWEST_LOCKS);
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg2Write2 = startGrabber(tid2, p2, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertEquals(1, bp.getDeadlocksDetected());
+    assertNotNull(lg1Write1.getError());
+    assertTrue(lg2Write0.acquired());
+    lg1Write0.stop(); lg2Write1.stop(); lg2Write2.stop(); lg1Write1.stop(); lg2Write0.stop();
+  }
+
+  /**
+   * With the LEAST_LOG_WRITTEN policy the older transaction is aborted when
+   * it has written less log than the younger one.
+   */
+  @Test public void testLeastLogWrittenVictim() throws Exception {
+    bp.setDeadlockVictimPolicy(WaitsForGraph.VictimPolicy.LEAST_LOG_WRITTEN);
+    Database.getLogFile().logXactionBegin(tid2);
+    Page page = bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    Database.getLogFile().logWrite(tid2, page.getBeforeImage(), page);
+    assertTrue(Database.getLogFile().getLogBytesWritten(tid2) > 0);
+
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertEquals(1, bp.getDeadlocksDetected());
+    assertNotNull(lg1Write1.getError());
+    assertTrue(lg2Write0.acquired());
+    lg1Write0.stop(); lg1Write1.stop(); lg2Write0.stop();
+  }
+
   /**
    * JUnit suite target
    */
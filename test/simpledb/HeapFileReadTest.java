@@ -3,7 +3,10 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -121,6 +124,161 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan over a table much larger than the buffer pool reads through a
+     * scan ring and leaves the pages already cached in the pool alone.
+     */
+    @Test
+    public void testScanRingKeepsPoolResident() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 20,
+                null, null);
+        assertEquals(20, bigFile.numPages());
+
+        HeapPageId hot = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(1, pool.getMissCount());
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        it.close();
+        assertEquals(504 * 20, count);
+        assertTrue(pool.getMissCount() + pool.getPrefetchCount() >= 21);
+
+        // hot page is still cached
+        long misses = pool.getMissCount();
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(misses, pool.getMissCount());
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage: the page is read in the
+     * background, and the scan that asks for it later finds it cached.
+     */
+    @Test
+    public void testPrefetchPage() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        pool.prefetchPage(pid, null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPrefetchCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, pool.getPrefetchCount());
+
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(0, pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    /**
+     * A read-ahead that is in flight while a writer puts its modified page
+     * back in the pool must not replace that page with the image it read.
+     */
+    @Test
+    public void testPrefetchKeepsConcurrentWrite() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        TransactionId writer = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        AtomicBoolean inFlight = new AtomicBoolean();
+        HeapFile racing = new HeapFile(hf.getFile(), td) {
+            @Override
+            public Page readPage(PageId id) {
+                Page image = super.readPage(id);
+                if (inFlight.compareAndSet(true, false)) {
+                    // the read-ahead has its image; now the writer dirties the page
+                    try {
+                        Database.getBufferPool().insertTuple(writer, getId(), Utility.getHeapTuple(-1, 2));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return image;
+            }
+        };
+        Database.getCatalog().addTable(racing, SystemTestUtil.getUUID());
+
+        inFlight.set(true);
+        Future<?> read = pool.prefetchPage(pid, null);
+        read.get();
+        assertFalse(inFlight.get());
+        assertEquals(0, pool.getPrefetchCount());
+
+        HeapPage page = (HeapPage) pool.getPage(writer, pid, Permissions.READ_ONLY);
+        assertEquals(writer, page.isDirty());
+        assertEquals(504 - 21, page.getNumEmptySlots());
+        pool.transactionComplete(writer, false);
+    }
+
+    /**
+     * A memory-mapped HeapFile reads the same tuples as an ordinary one, and
+     * sees pages appended by insertTuple.
+     */
+    @Test
+    public void testMemoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 1000, null, tuples);
+        HeapFile mapped = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        // both pages are full, so this appends a third page
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        mapped.insertTuple(tid, t);
+        assertEquals(3, mapped.numPages());
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(503, page.getNumEmptySlots());
+        Tuple read = page.iterator().next();
+        assertEquals(new IntField(-1), read.getField(0));
+    }
+
+    /**
+     * A page read from a memory-mapped HeapFile shares the mapping until it
+     * is modified, and keeps its contents and its before image when the same
+     * page is later written through the file.
+     */
+    @Test
+    public void testMemoryMappedPageIsStable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, tuples);
+        HeapFile mapped = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertTrue(page.isShared());
+
+        // empty the page on disk
+        HeapPage emptied = (HeapPage) mapped.readPage(pid);
+        assertTrue(emptied.isShared());
+        Iterator<Tuple> it = emptied.iterator();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        for (Tuple t : all) {
+            emptied.deleteTuple(t);
+        }
+        assertFalse(emptied.isShared());
+        assertTrue(page.isShared());
+        mapped.writePage(emptied);
+        assertFalse(page.isShared());
+        assertEquals(emptied.getNumEmptySlots(), ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+
+        HeapPage before = page.getBeforeImage();
+        assertEquals(page.getNumEmptySlots(), before.getNumEmptySlots());
+        Tuple first = page.iterator().next();
+        assertEquals(new IntField(tuples.get(0).get(0)), first.getField(0));
+        assertEquals(new IntField(tuples.get(0).get(0)), before.iterator().next().getField(0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -121,6 +121,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples have not
+     * been decoded, and for iterating past a deleted tuple.
+     */
+    @Test public void getPageDataUndecoded() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertFalse(copy.isSlotUsed(1));
+        int count = 0;
+        for (it = copy.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(19, count);
+    }
+
     /**
      * JUnit suite target
      */
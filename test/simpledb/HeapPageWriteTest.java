@@ -1,6 +1,9 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +129,55 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.setBeforeImage() and getBeforeImage(): the
+     * before image is the contents at the last setBeforeImage, even though
+     * it is only saved when the page is next modified.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(3, 2));
+        assertEquals(482, page.getNumEmptySlots());
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getSlotData() and setSlotData()
+     */
+    @Test public void slotData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        int slot = first.getRecordId().tupleno();
+        byte[] data = page.getSlotData(slot);
+        assertEquals(Utility.getTupleDesc(2).getSize(), data.length);
+        assertNull(page.getSlotData(page.getNumSlots() - 1));
+
+        // copying the slot's bytes to an empty slot copies the tuple
+        int empty = page.getNumSlots() - 1;
+        page.setSlotData(empty, data);
+        assertTrue(page.isSlotUsed(empty));
+        assertArrayEquals(data, page.getSlotData(empty));
+        page.setSlotData(slot, null);
+        assertFalse(page.isSlotUsed(slot));
+        Tuple moved = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            moved = it.next();
+        }
+        assertEquals(empty, moved.getRecordId().tupleno());
+        assertEquals(first.getField(0), moved.getField(0));
+        assertEquals(first.getField(1), moved.getField(1));
+
+        // and survives serialization
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertArrayEquals(data, copy.getSlotData(empty));
+        assertNull(copy.getSlotData(slot));
+    }
+
     /**
      * JUnit suite target
      */
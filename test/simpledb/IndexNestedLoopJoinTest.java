@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 2;
+  TransactionId tid;
+  DbIterator scan1;
+  BTreeScan scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createInputs() throws Exception {
+    this.tid = new TransactionId();
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    20, 0,
+                    7, 8,
+                    3, 9 });
+    // inner tuples are {k, 2k} for k from 1 to 10, keyed on the first field
+    BTreeFile f = BTreeUtility.createBTreeFile(width2, 10, null, null, 0);
+    this.scan2 = new BTreeScan(tid, f.getId(), null);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, scan2);
+    assertEquals(width1 + width2, op.getTupleDesc().numFields());
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, scan2);
+    DbIterator expected = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2,
+                    3, 4, 3, 6,
+                    7, 8, 7, 14,
+                    3, 9, 3, 6 });
+    op.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+
+    // the second pass probes the index again for every outer tuple
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(t.getField(0).compare(Predicate.Op.GREATER_THAN, t.getField(2)));
+      count++;
+    }
+    // 0 + 2 + 10 + 6 + 2 inner keys below each outer key
+    assertEquals(20, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin rejecting predicates an index cannot answer
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEqualsJoin() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    new IndexNestedLoopJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -621,4 +621,118 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Verify that an equi-join of a small table with a large B+ tree keyed on
+     * the join field probes the index instead of scanning the large table
+     */
+    @Test
+    public void indexNestedLoopJoinTest() throws Exception {
+        // keys 1 to 5020 in the B+ tree, columns named c0 and c1
+        BTreeFile bf = BTreeUtility.createBTreeFile(2, 5020, null, null, 0);
+        bf = BTreeUtility.openBTreeFile(2, "c", bf.getFile(), 0);
+        String bigName = Database.getCatalog().getTableName(bf.getId());
+
+        ArrayList<ArrayList<Integer>> smallTuples = new ArrayList<ArrayList<Integer>>();
+        for (int key : new int[] { 3, 700, 700, 9000 }) {
+            ArrayList<Integer> tup = new ArrayList<Integer>();
+            tup.add(key);
+            tup.add(0);
+            smallTuples.add(tup);
+        }
+        HeapFile small = createDuplicateHeapFile(smallTuples, 2, "c");
+        Database.getCatalog().addTable(small, "small");
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(bigName, new TableStats(bf.getId(), 1000));
+        stats.put("small", new TableStats(small.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "b");
+        lp.addScan(small.getId(), "s");
+        lp.addJoin("b.c0", "s.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+
+        // probing the index is cheaper than rescanning the big table per outer tuple
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        LogicalJoinNode node = new LogicalJoinNode("s", "b", "c0", "c0", Predicate.Op.EQUALS);
+        double smallCost = stats.get("small").estimateScanCost();
+        double bigCost = stats.get(bigName).estimateScanCost();
+        double indexCost = jo.estimateJoinCost(node, 4, 5020, smallCost, bigCost);
+        Assert.assertTrue(indexCost < smallCost + 4 * bigCost);
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator join = ((Operator) plan).getChildren()[0];
+        Assert.assertTrue(join instanceof IndexNestedLoopJoin);
+        Assert.assertTrue(((Operator) join).getChildren()[1] instanceof BTreeScan);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            Assert.assertEquals(t.getField(0), t.getField(2));
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(3, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Verify that when I/O is cheap, a large outer table is not joined by
+     * probing a tiny B+ tree once per tuple: the key comparisons of the
+     * probes cost more than a nested loop over the tiny table
+     */
+    @Test
+    public void indexProbeCpuCostTest() throws Exception {
+        // keys 1 to 4 in the B+ tree, columns named c0 and c1
+        BTreeFile bf = BTreeUtility.createBTreeFile(2, 4, null, null, 0);
+        bf = BTreeUtility.openBTreeFile(2, "c", bf.getFile(), 0);
+        String tinyName = Database.getCatalog().getTableName(bf.getId());
+
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            ArrayList<Integer> tup = new ArrayList<Integer>();
+            tup.add(i % 8);
+            tup.add(i);
+            bigTuples.add(tup);
+        }
+        HeapFile big = createDuplicateHeapFile(bigTuples, 2, "c");
+        Database.getCatalog().addTable(big, "big");
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tinyName, new TableStats(bf.getId(), 1));
+        stats.put("big", new TableStats(big.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(big.getId(), "b");
+        lp.addScan(bf.getId(), "t");
+        lp.addJoin("b.c0", "t.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        double tinyCost = stats.get(tinyName).estimateScanCost();
+        double bigCost = stats.get("big").estimateScanCost();
+        double indexCost = jo.estimateJoinCost(new LogicalJoinNode("b", "t", "c0", "c0",
+                Predicate.Op.EQUALS), 1000, 4, bigCost, tinyCost);
+        double loopCost = jo.estimateJoinCost(new LogicalJoinNode("t", "b", "c0", "c0",
+                Predicate.Op.EQUALS), 4, 1000, tinyCost, bigCost);
+        Assert.assertTrue(loopCost < indexCost);
+
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator join = ((Operator) plan).getChildren()[0];
+        Assert.assertFalse(join instanceof IndexNestedLoopJoin);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(500, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
 }
@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private PageId p0, p1, p2, p3;
+
+    @Before public void createPids() {
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        p2 = new HeapPageId(1, 2);
+        p3 = new HeapPageId(1, 3);
+    }
+
+    /** Add the pages one at a time so that their timestamps differ. */
+    private void add(ReplacementPolicy policy, PageId... pids) throws Exception {
+        for (PageId pid : pids) {
+            policy.pageAdded(pid);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Unit test for LruReplacementPolicy: the page touched longest ago goes
+     * first, and pages rejected by canEvict are skipped.
+     */
+    @Test public void lru() throws Exception {
+        ReplacementPolicy policy = new LruReplacementPolicy();
+        add(policy, p0, p1, p2);
+        policy.pageAccessed(p0);
+        assertEquals(p1, policy.chooseVictim(pid -> true));
+        assertEquals(p2, policy.chooseVictim(pid -> !pid.equals(p1)));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: a page referenced since the last
+     * sweep gets a second chance.
+     */
+    @Test public void clock() throws Exception {
+        ReplacementPolicy policy = new ClockReplacementPolicy();
+        add(policy, p0, p1, p2);
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+        policy.pageRemoved(p0);
+        policy.pageAccessed(p1);
+        assertEquals(p2, policy.chooseVictim(pid -> true));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: once A1in is over its share,
+     * pages seen only once are evicted before pages requested again.
+     */
+    @Test public void twoQueue() throws Exception {
+        ReplacementPolicy policy = new TwoQueueReplacementPolicy(8);
+        add(policy, p0);
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+        policy.pageRemoved(p0);
+        add(policy, p0, p1, p2, p3);
+        assertEquals(p1, policy.chooseVictim(pid -> true));
+        policy.pageRemoved(p1);
+        // A1in is back within its share, so the LRU end of Am goes first
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+        // a second request while still in A1in also promotes a page to Am
+        policy.pageAccessed(p2);
+        Thread.sleep(1);
+        policy.pageAccessed(p0);
+        assertEquals(p2, policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * Unit test for LruKReplacementPolicy: a page accessed fewer than K times
+     * is evicted before one with a full history, even if it is newer.
+     */
+    @Test public void lruK() throws Exception {
+        ReplacementPolicy policy = new LruKReplacementPolicy(2, 8);
+        add(policy, p0);
+        policy.pageAccessed(p0);
+        add(policy, p1, p2);
+        assertEquals(p1, policy.chooseVictim(pid -> true));
+        policy.pageRemoved(p1);
+        assertEquals(p2, policy.chooseVictim(pid -> true));
+        policy.pageRemoved(p2);
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
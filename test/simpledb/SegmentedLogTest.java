@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SegmentedLogTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT = 16;
+
+    private File dir;
+    private SegmentedLog log;
+
+    @Before public void createLog() throws Exception {
+        dir = Files.createTempDirectory("segments").toFile();
+        log = new SegmentedLog(dir);
+        log.reset(SEGMENT);
+    }
+
+    @After public void deleteLog() throws Exception {
+        log.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static byte[] bytes(int from, int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) (from + i);
+        }
+        return b;
+    }
+
+    /**
+     * Unit test for SegmentedLog.write() and readFully() across segments
+     */
+    @Test public void spanSegments() throws Exception {
+        log.write(bytes(0, 40));
+        assertEquals(40, log.length());
+        assertEquals(3, log.getFiles().size());
+
+        byte[] buf = new byte[20];
+        log.seek(10);
+        log.readFully(buf);
+        assertArrayEquals(bytes(10, 20), buf);
+        assertEquals(30, log.getFilePointer());
+    }
+
+    /**
+     * Unit test for SegmentedLog.readFully() past the end of the log
+     */
+    @Test(expected = EOFException.class) public void readPastEnd() throws Exception {
+        log.write(bytes(0, 20));
+        log.seek(10);
+        log.readFully(new byte[11]);
+    }
+
+    /**
+     * Unit test for SegmentedLog.setLength(), and reopening the log
+     */
+    @Test public void cutAndReopen() throws Exception {
+        log.write(bytes(0, 40));
+        log.setLength(20);
+        assertEquals(2, log.getFiles().size());
+
+        log.open(SEGMENT);
+        assertEquals(0, log.getStart());
+        assertEquals(20, log.length());
+        log.seek(20);
+        log.write(bytes(20, 4));
+        byte[] buf = new byte[24];
+        log.seek(0);
+        log.readFully(buf);
+        assertArrayEquals(bytes(0, 24), buf);
+    }
+
+    /**
+     * Unit test for SegmentedLog.dropBefore(): only whole segments are
+     * dropped, never the last, and LSNs do not change
+     */
+    @Test public void dropBefore() throws Exception {
+        log.write(bytes(0, 40));
+        assertEquals(1, log.dropBefore(20, null));
+        assertEquals(16, log.getStart());
+        assertEquals(1, log.dropBefore(100, null));
+        assertEquals(32, log.getStart());
+        assertEquals(1, log.getFiles().size());
+
+        log.open(SEGMENT);
+        assertEquals(32, log.getStart());
+        assertEquals(40, log.length());
+        byte[] buf = new byte[8];
+        log.seek(32);
+        log.readFully(buf);
+        assertArrayEquals(bytes(32, 8), buf);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
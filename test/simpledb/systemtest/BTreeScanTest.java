@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Iterator;
@@ -282,6 +283,54 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that the planner scans the index for selective filters on the key field only */
+    @Test public void testIndexAccessPath() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, 10*502, null, tuples, 0);
+        // reopen with named columns c0 (the key) and c1
+        f = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+        String tableName = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName, new TableStats(f.getId(), 1000));
+        TransactionId tid = new TransactionId();
+
+        // a selective filter on the key is answered by the index
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Op.LESS_THAN_OR_EQ, "20");
+        lp.addFilter("t.c1", Op.GREATER_THAN, "10");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof Filter);
+        assertTrue(((Operator) child).getChildren()[0] instanceof BTreeScan);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(0) <= 20 && tup.get(1) > 10)
+                expected.add(tup);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // a filter matching most of the table is cheaper to answer with a sequential scan
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Op.GREATER_THAN, "20");
+        lp.addProjectField("*", null);
+        child = ((Operator) lp.physicalPlan(tid, stats, false)).getChildren()[0];
+        assertTrue(child instanceof Filter);
+        assertTrue(((Operator) child).getChildren()[0] instanceof SeqScan);
+
+        // a filter on a column other than the key cannot use the index
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Op.EQUALS, "20");
+        lp.addProjectField("*", null);
+        child = ((Operator) lp.physicalPlan(tid, stats, false)).getChildren()[0];
+        assertTrue(((Operator) child).getChildren()[0] instanceof SeqScan);
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
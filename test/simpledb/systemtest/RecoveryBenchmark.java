@@ -0,0 +1,64 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures restart time against log size: a run of small committed
+ * transactions is logged under NO FORCE, the database is dropped without
+ * flushing, and LogFile.recover() is timed. Each log size is run with no
+ * checkpoint, and with a checkpoint taken shortly before the crash, which
+ * bounds how much of the log recovery reads.
+ * <p>
+ * Not run as part of the test suites. Run it after "ant testcompile" with
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/zql.jar:lib/jline-0.9.94.jar:lib/junit-4.5.jar \
+ *         simpledb.systemtest.RecoveryBenchmark
+ * </pre>
+ */
+public class RecoveryBenchmark {
+
+    private static final int TABLE_PAGES = 20;
+    private static final int POOL_PAGES = 50;
+    // transactions committed after the checkpoint
+    private static final int TAIL = 100;
+
+    // two int columns give 504 tuples per 4096-byte page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%8s %12s %10s %12s%n", "txns", "checkpoint", "log KB", "recover ms");
+        for (int txns : new int[]{250, 500, 1000, 2000}) {
+            for (boolean checkpoint : new boolean[]{false, true}) {
+                Database.reset();
+                HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * TUPLES_PER_PAGE, null, null);
+                BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+                bp.setForcePolicy(false);
+                for (int i = 0; i < txns; i++) {
+                    if (checkpoint && i == txns - TAIL) {
+                        Database.getLogFile().logCheckpoint();
+                    }
+                    Transaction t = new Transaction();
+                    t.start();
+                    HeapPage p = (HeapPage) bp.getPage(t.getId(),
+                            new HeapPageId(hf.getId(), i % TABLE_PAGES), Permissions.READ_WRITE);
+                    bp.deleteTuple(t.getId(), p.iterator().next());
+                    t.commit();
+                }
+                long logBytes = 0;
+                for (File segment : Database.getLogFile().getSegmentFiles()) {
+                    logBytes += segment.length();
+                }
+
+                File f = hf.getFile();
+                Database.reset();
+                Utility.openHeapFile(2, f);
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%8d %12s %10d %12.1f%n", txns, checkpoint, logBytes / 1024, elapsed / 1e6);
+            }
+        }
+    }
+}
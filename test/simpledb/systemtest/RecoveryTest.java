@@ -0,0 +1,413 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests LogFile.recover() by "crashing" the database: the buffer pool, log
+ * and catalog are dropped without flushing anything, the table is reopened
+ * and the log recovered.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    // two int columns give 504 tuples per 4096-byte page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private HeapFile crashAndRecover(HeapFile hf) throws Exception {
+        File f = hf.getFile();
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        Database.getLogFile().recover();
+        return reopened;
+    }
+
+    private int countTuples(DbFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = hf.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        return count;
+    }
+
+    private long logBytes() throws Exception {
+        long bytes = 0;
+        for (File f : Database.getLogFile().getSegmentFiles()) {
+            bytes += f.length();
+        }
+        return bytes;
+    }
+
+    private File lastSegment() throws Exception {
+        List<File> files = Database.getLogFile().getSegmentFiles();
+        return files.get(files.size() - 1);
+    }
+
+    private int emptySlots(HeapFile hf, int pageNo) {
+        return ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo))).getNumEmptySlots();
+    }
+
+    // delete one tuple from each of the given pages
+    private void deleteFromPages(Transaction t, HeapFile hf, int... pageNos) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int pageNo : pageNos) {
+            HeapPage p = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), pageNo), Permissions.READ_WRITE);
+            bp.deleteTuple(t.getId(), p.iterator().next());
+        }
+    }
+
+    /**
+     * Committed changes that were only written to the log are redone.
+     */
+    @Test public void redoCommitted() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 3, null, null);
+        Database.getBufferPool().setForcePolicy(false);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t, hf, 0, 1, 2);
+        t.commit();
+        assertEquals(0, emptySlots(hf, 0));
+
+        hf = crashAndRecover(hf);
+        assertEquals(TUPLES_PER_PAGE * 3 - 3, countTuples(hf));
+    }
+
+    /**
+     * Changes of a transaction that never finished are undone, even though
+     * they were written to disk.
+     */
+    @Test public void undoLoser() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 10, null, null);
+        Database.resetBufferPool(5).setStealPolicy(true);
+        Transaction winner = new Transaction();
+        winner.start();
+        deleteFromPages(winner, hf, 9);
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        deleteFromPages(loser, hf, 0, 1, 2, 3, 4, 5, 6, 7, 8);
+        assertEquals(1, emptySlots(hf, 0));
+
+        hf = crashAndRecover(hf);
+        assertEquals(TUPLES_PER_PAGE * 10 - 1, countTuples(hf));
+    }
+
+    /**
+     * An aborted change is not redone, and does not hide the committed
+     * changes before and after it.
+     */
+    @Test public void abortBetweenCommits() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, null);
+        Database.getBufferPool().setForcePolicy(false);
+        Transaction t1 = new Transaction();
+        t1.start();
+        deleteFromPages(t1, hf, 0);
+        t1.commit();
+        Transaction t2 = new Transaction();
+        t2.start();
+        deleteFromPages(t2, hf, 0, 1);
+        t2.abort();
+        Transaction t3 = new Transaction();
+        t3.start();
+        deleteFromPages(t3, hf, 0, 1);
+        t3.commit();
+
+        hf = crashAndRecover(hf);
+        assertEquals(2, emptySlots(hf, 0));
+        assertEquals(1, emptySlots(hf, 1));
+    }
+
+    /**
+     * A transaction active at the checkpoint is undone back to its first
+     * record, before the checkpoint, and committed work after the
+     * checkpoint is redone.
+     */
+    @Test public void loserSpansCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, null);
+        Database.getBufferPool().setForcePolicy(false);
+        Transaction loser = new Transaction();
+        loser.start();
+        deleteFromPages(loser, hf, 0);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        assertEquals(1, emptySlots(hf, 0));
+
+        Transaction winner = new Transaction();
+        winner.start();
+        deleteFromPages(winner, hf, 1);
+        winner.commit();
+
+        hf = crashAndRecover(hf);
+        assertEquals(0, emptySlots(hf, 0));
+        assertEquals(1, emptySlots(hf, 1));
+    }
+
+    /**
+     * A checkpoint writes back committed pages, but not pages a running
+     * transaction has dirtied. Such a page stays in the dirty page table,
+     * and its committed change, logged before the checkpoint, is redone.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.setForcePolicy(false);
+        Transaction t1 = new Transaction();
+        t1.start();
+        deleteFromPages(t1, hf, 0, 1);
+        t1.commit();
+        Transaction running = new Transaction();
+        running.start();
+        deleteFromPages(running, hf, 0);
+
+        Database.getLogFile().logCheckpoint();
+        assertEquals(0, emptySlots(hf, 0));
+        assertEquals(1, emptySlots(hf, 1));
+        assertEquals(1, bp.getUnflushedPageCount());
+        assertEquals(1, Database.getLogFile().getDirtyPages().size());
+
+        hf = crashAndRecover(hf);
+        assertEquals(1, emptySlots(hf, 0));
+        assertEquals(1, emptySlots(hf, 1));
+    }
+
+    /**
+     * Writing the checkpoint record does not wait for the buffer pool.
+     */
+    @Test public void checkpointWithoutPoolLock() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        Transaction running = new Transaction();
+        running.start();
+        deleteFromPages(running, hf, 0);
+
+        final Exception[] failure = new Exception[1];
+        Thread checkpointer = new Thread(() -> {
+            try {
+                Database.getLogFile().logCheckpoint();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        synchronized (Database.getBufferPool()) {
+            checkpointer.start();
+            checkpointer.join(10000);
+            assertTrue(!checkpointer.isAlive());
+        }
+        assertEquals(null, failure[0]);
+        running.commit();
+    }
+
+    /**
+     * A rollback of changes that were written to disk is itself logged,
+     * so redoing the aborted transaction's history leaves nothing of it.
+     */
+    @Test public void stealAbortThenCrash() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 10, null, null);
+        Database.resetBufferPool(5).setStealPolicy(true);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        deleteFromPages(aborted, hf, 0, 1, 2, 3, 4, 5, 6, 7, 8);
+        aborted.abort();
+        Transaction winner = new Transaction();
+        winner.start();
+        deleteFromPages(winner, hf, 0);
+        winner.commit();
+
+        hf = crashAndRecover(hf);
+        assertEquals(TUPLES_PER_PAGE * 10 - 1, countTuples(hf));
+        assertEquals(1, emptySlots(hf, 0));
+    }
+
+    /**
+     * A one-tuple change to a heap page is logged as a slot, not as two
+     * whole pages.
+     */
+    @Test public void slotRecordsAreSmall() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t, hf, 0);
+        long before = logBytes();
+        t.commit();
+        assertTrue(logBytes() - before < 256);
+
+        hf = crashAndRecover(hf);
+        assertEquals(1, emptySlots(hf, 0));
+    }
+
+    /**
+     * Committed changes to a B+ tree are redone: deletes, logged slot by
+     * slot, and inserts that split leaves, logged as whole pages.
+     */
+    @Test public void redoBTreeChanges() throws Exception {
+        int rows = 2000;
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setForcePolicy(false);
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = bf.iterator(t.getId());
+        it.open();
+        for (int i = 0; i < 20; i++) {
+            bp.deleteTuple(t.getId(), it.next());
+        }
+        it.close();
+        t.commit();
+        t = new Transaction();
+        t.start();
+        for (int i = 0; i < 20; i++) {
+            bp.insertTuple(t.getId(), bf.getId(), BTreeUtility.getBTreeTuple(i * 3271 % BTreeUtility.MAX_RAND_VALUE, 2));
+        }
+        t.commit();
+
+        File f = bf.getFile();
+        Database.reset();
+        bf = BTreeUtility.openBTreeFile(2, f, 0);
+        Database.getLogFile().recover();
+        assertEquals(rows, countTuples(bf));
+    }
+
+    /**
+     * A record torn by the crash is ignored, and cut from the log.
+     */
+    @Test public void tornTail() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        Database.getBufferPool().setForcePolicy(false);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t, hf, 0);
+        t.commit();
+
+        File log = lastSegment();
+        long length = log.length();
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        raf.seek(length);
+        raf.writeInt(3);  // the start of an UPDATE record
+        raf.writeLong(t.getId().getId());
+        raf.close();
+
+        hf = crashAndRecover(hf);
+        assertEquals(1, emptySlots(hf, 0));
+        assertEquals(length, log.length());
+    }
+
+    /**
+     * A complete record whose contents were damaged fails its checksum. Here
+     * the damage makes the last COMMIT record name another, unfinished
+     * transaction; neither transaction is taken to have committed.
+     */
+    @Test public void corruptRecord() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, null);
+        Database.getBufferPool().setForcePolicy(false);
+        Transaction loser = new Transaction();
+        loser.start();
+        deleteFromPages(loser, hf, 0);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        Transaction t = new Transaction();
+        t.start();
+        deleteFromPages(t, hf, 1);
+        t.commit();
+
+        // the COMMIT record is the last 28 bytes: type, tid, length, CRC, offset
+        File log = lastSegment();
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        raf.seek(log.length() - 28 + 4);
+        raf.writeLong(loser.getId().getId());
+        raf.close();
+
+        hf = crashAndRecover(hf);
+        assertEquals(0, emptySlots(hf, 0));
+        assertEquals(0, emptySlots(hf, 1));
+    }
+
+    /**
+     * A checkpoint drops the segments recovery no longer needs, here into an
+     * archive directory, and recovery still finds everything it does need.
+     */
+    @Test public void truncateDropsSegments() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setSegmentSize(4096);
+        File archive = new File(System.getProperty("java.io.tmpdir"), "simpledb-archive-" + System.nanoTime());
+        log.setArchiveDirectory(archive);
+        try {
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, null);
+            for (int i = 0; i < 100; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                deleteFromPages(t, hf, i % 2);
+                t.commit();
+            }
+            int segments = log.getSegmentFiles().size();
+            assertTrue(segments > 2);
+
+            log.logCheckpoint();
+            assertEquals(segments - 1, archive.list().length);
+            assertEquals(1, log.getSegmentFiles().size());
+
+            Database.getBufferPool().setForcePolicy(false);
+            Transaction t = new Transaction();
+            t.start();
+            deleteFromPages(t, hf, 0, 1);
+            t.commit();
+            hf = crashAndRecover(hf);
+            assertEquals(51, emptySlots(hf, 0));
+            assertEquals(51, emptySlots(hf, 1));
+        } finally {
+            File[] archived = archive.listFiles();
+            if (archived != null) {
+                for (File f : archived) {
+                    f.delete();
+                }
+            }
+            archive.delete();
+        }
+    }
+
+    /**
+     * A log in a format this version does not know is refused.
+     */
+    @Test public void unknownFormatVersion() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        File f = hf.getFile();
+        Database.reset();
+        RandomAccessFile raf = new RandomAccessFile(new File("log"), "rw");
+        raf.setLength(0);
+        raf.writeLong(-1);
+        raf.writeInt(LogFile.FORMAT_VERSION + 1);
+        raf.writeInt(LogFile.DEFAULT_SEGMENT_SIZE);
+        raf.close();
+
+        Utility.openHeapFile(2, f);
+        try {
+            Database.getLogFile().recover();
+            fail("expected IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the buffer pool hit ratio of each replacement policy on a mixed
+ * workload: random point lookups against a small hot table, interleaved
+ * with full scans of a fact table several times larger than the pool.
+ * <p>
+ * Not run as part of the test suites. Run it after "ant testcompile" with
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/zql.jar:lib/jline-0.9.94.jar:lib/junit-4.5.jar \
+ *         simpledb.systemtest.ReplacementPolicyBenchmark
+ * </pre>
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final int POOL_PAGES = 50;
+    private static final int HOT_PAGES = 20;
+    private static final int SCAN_PAGES = 200;
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_ROUND = 500;
+
+    // two int columns give 504 tuples per 4096-byte page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, HOT_PAGES * TUPLES_PER_PAGE, null, null);
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, SCAN_PAGES * TUPLES_PER_PAGE, null, null);
+
+        System.out.printf("%-8s %12s %12s%n", "policy", "hit ratio", "hot hits");
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES, kind);
+            Random rand = new Random(42);
+            long hotHits = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < LOOKUPS_PER_ROUND; i++) {
+                    long before = bp.getHitCount();
+                    bp.getPage(tid, new HeapPageId(hot.getId(), rand.nextInt(HOT_PAGES)), Permissions.READ_ONLY);
+                    hotHits += bp.getHitCount() - before;
+                }
+                for (int pgNo = 0; pgNo < SCAN_PAGES; pgNo++) {
+                    bp.getPage(tid, new HeapPageId(fact.getId(), pgNo), Permissions.READ_ONLY);
+                }
+                bp.transactionComplete(tid);
+            }
+            double total = bp.getHitCount() + bp.getMissCount();
+            System.out.printf("%-8s %11.1f%% %11.1f%%%n", kind,
+                    100 * bp.getHitCount() / total,
+                    100.0 * hotHits / (ROUNDS * LOOKUPS_PER_ROUND));
+        }
+    }
+}